@@ -0,0 +1,290 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class BatchRetrieval {
+    public static void main(String[] args) {
+        List<String> paths = new ArrayList<>();
+        QueryEngine.Algorithm algorithm = QueryEngine.Algorithm.BMW;
+        int threadCount = 1;
+        int k = 1000;
+        String tag = "bm25";
+        boolean proximity = false;
+        long resultCacheSize = 0;
+        long postingsCacheSize = 0;
+        String metricsPath = null;
+        int impactBudget = Integer.MAX_VALUE;
+        QueryExpansion.Method expansionMethod = null;
+        int feedbackDocuments = QueryExpansion.FEEDBACK_DOCUMENTS;
+        int feedbackTerms = QueryExpansion.FEEDBACK_TERMS;
+        double originalWeight = QueryExpansion.ORIGINAL_WEIGHT;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--algorithm") && i + 1 < args.length) {
+                    algorithm = QueryEngine.Algorithm.valueOf(args[++i].toUpperCase());
+                } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                    threadCount = Math.max(1, Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--k") && i + 1 < args.length) {
+                    k = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--tag") && i + 1 < args.length) {
+                    tag = args[++i];
+                } else if (args[i].equals("--proximity")) {
+                    proximity = true;
+                } else if (args[i].equals("--result-cache") && i + 1 < args.length) {
+                    resultCacheSize = Long.parseLong(args[++i]) << 20;
+                } else if (args[i].equals("--postings-cache") && i + 1 < args.length) {
+                    postingsCacheSize = Long.parseLong(args[++i]) << 20;
+                } else if (args[i].equals("--budget") && i + 1 < args.length) {
+                    impactBudget = Math.max(1, Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                    metricsPath = args[++i];
+                } else if (args[i].equals("--expansion") && i + 1 < args.length) {
+                    expansionMethod = QueryExpansion.Method.valueOf(args[++i].toUpperCase());
+                } else if (args[i].equals("--feedback-docs") && i + 1 < args.length) {
+                    feedbackDocuments = Math.max(1, Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--feedback-terms") && i + 1 < args.length) {
+                    feedbackTerms = Math.max(0, Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--original-weight") && i + 1 < args.length) {
+                    originalWeight = Math.max(0, Math.min(1, Double.parseDouble(args[++i])));
+                } else {
+                    paths.add(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            paths.clear();
+        }
+
+        if (paths.size() != 3 || k < 1) {
+            System.out.println("Usage: java BatchRetrieval.java [--algorithm <exhaustive|wand|bmw|saat>] [--budget <postings>] [--threads <count>] [--k <depth>] [--tag <run_tag>] [--proximity] [--result-cache <megabytes>] [--postings-cache <megabytes>] [--metrics <path>] [--expansion <rm3|rocchio> [--feedback-docs <count>] [--feedback-terms <count>] [--original-weight <weight>]] <path_to_directory> <path_to_queries> <path_to_run_file>");
+            System.exit(1);
+        }
+
+        String directoryPath = paths.get(0);
+        File directory = new File(directoryPath);
+        if (!directory.exists() || !directory.isDirectory()) {
+            System.out.println("Error: the directory " + directoryPath + " does not exist");
+            System.exit(1);
+        }
+
+        try {
+            SegmentedIndex index = new SegmentedIndex(directoryPath);
+            if (proximity && !index.hasPositions()) {
+                System.out.println("Error: --proximity needs an index built with --positions");
+                System.exit(1);
+            }
+            if (algorithm == QueryEngine.Algorithm.SAAT && !index.hasImpacts()) {
+                System.out.println("Error: --algorithm saat needs an index built with --impacts, in a single segment if built with --append");
+                System.exit(1);
+            }
+            if (expansionMethod != null && !index.hasForwardIndex()) {
+                System.out.println("Error: --expansion needs an index with a forward index, please re-index");
+                System.exit(1);
+            }
+            index.setCaches(resultCacheSize, postingsCacheSize);
+            index.setImpactBudget(impactBudget);
+
+            List<String[]> queries = loadQueries(paths.get(1));
+            Result[][] results = new Result[queries.size()][];
+            String[] texts = new String[queries.size()];
+            String[] errors = new String[queries.size()];
+            long[] latencies = new long[queries.size()];
+
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            List<Future<?>> tasks = new ArrayList<>();
+            final QueryEngine.Algorithm queryAlgorithm = algorithm;
+            final int depth = k;
+            final boolean proximityBoost = proximity;
+            final QueryExpansion expansion = expansionMethod == null ? null : new QueryExpansion(expansionMethod, feedbackDocuments, feedbackTerms, originalWeight);
+
+            long startTime = System.nanoTime();
+            for (int i = 0; i < queries.size(); i++) {
+                final int queryIndex = i;
+                tasks.add(executor.submit(() -> {
+                    long queryStart = System.nanoTime();
+                    String text = queries.get(queryIndex)[1];
+                    try {
+                        texts[queryIndex] = expansion == null ? text : index.expand(text, expansion, queryAlgorithm);
+                        results[queryIndex] = index.search(texts[queryIndex], depth, queryAlgorithm, proximityBoost);
+                    } catch (IllegalStateException e) {
+                        // the index cannot answer this query as asked (e.g. a phrase without positions); the rest still run
+                        errors[queryIndex] = e.getMessage();
+                        texts[queryIndex] = null;
+                        results[queryIndex] = new Result[0];
+                    }
+                    latencies[queryIndex] = System.nanoTime() - queryStart;
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            long endTime = System.nanoTime();
+            executor.shutdown();
+
+            BufferedWriter runWriter = new BufferedWriter(new FileWriter(paths.get(2)));
+            for (int i = 0; i < queries.size(); i++) {
+                String qid = queries.get(i)[0];
+                for (int rank = 1; rank <= results[i].length; rank++) {
+                    Result result = results[i][rank-1];
+                    runWriter.write(qid + " Q0 " + result.getId() + " " + rank + " " + String.format("%.6f", result.getScore()) + " " + tag);
+                    runWriter.newLine();
+                }
+            }
+            runWriter.close();
+
+            for (int i = 0; i < queries.size(); i++) {
+                if (errors[i] != null) {
+                    System.out.println("Skipped query " + queries.get(i)[0] + ": " + errors[i]);
+                }
+            }
+            printThroughput(latencies, endTime - startTime);
+            printCache("Result cache", index.getResultCaches());
+            printCache("Postings cache", index.getPostingsCaches());
+            System.out.println(Metrics.formatSearchStages());
+            if (metricsPath != null) {
+                Metrics.write(metricsPath);
+            }
+            if (algorithm == QueryEngine.Algorithm.SAAT) {
+                printAgreement(index, texts, results, k, proximity);
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        } catch (ExecutionException e) {
+            System.out.println("Error: " + e.getCause().getMessage());
+            System.exit(1);
+        }
+    }
+
+    // reads TREC topics (<num> and <title> fields) or one query per line, optionally written as "qid<TAB>query"
+    public static List<String[]> loadQueries(String path) throws IOException {
+        StringBuilder contents = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            contents.append(line).append("\n");
+        }
+        reader.close();
+
+        List<String[]> queries = new ArrayList<>();
+        String text = contents.toString();
+        if (text.contains("<top>")) {
+            Pattern topicPattern = Pattern.compile("<num>\\s*(?:Number:)?\\s*(\\S+).*?<title>\\s*(?:Topic:)?(.*?)(?=<desc>|<narr>|</top>)", Pattern.DOTALL);
+            Matcher matcher = topicPattern.matcher(text);
+            while (matcher.find()) {
+                queries.add(new String[] {matcher.group(1), matcher.group(2).trim().replaceAll("\\s+", " ")});
+            }
+        } else {
+            int lineNumber = 1;
+            for (String query : text.split("\n")) {
+                if (query.trim().isEmpty()) {
+                    continue;
+                }
+                int tab = query.indexOf('\t');
+                if (tab != -1) {
+                    queries.add(new String[] {query.substring(0, tab).trim(), query.substring(tab + 1).trim()});
+                } else {
+                    queries.add(new String[] {String.valueOf(lineNumber), query.trim()});
+                }
+                lineNumber++;
+            }
+        }
+        return queries;
+    }
+
+    private static void printThroughput(long[] latencies, long elapsed) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        double seconds = elapsed / Math.pow(10, 9);
+
+        System.out.println("Queries: " + sorted.length);
+        System.out.println("Total time: " + String.format("%.2f", seconds) + " seconds");
+        System.out.println("Throughput: " + String.format("%.1f", sorted.length / seconds) + " queries/second");
+        System.out.println("Latency p50: " + String.format("%.2f", percentile(sorted, 50)) + " ms");
+        System.out.println("Latency p95: " + String.format("%.2f", percentile(sorted, 95)) + " ms");
+        System.out.println("Latency p99: " + String.format("%.2f", percentile(sorted, 99)) + " ms");
+    }
+
+    // how closely the quantized, possibly budgeted, score-at-a-time results follow exact BM25, which is computed
+    // again with Block-Max WAND for each query that was not skipped
+    private static void printAgreement(SegmentedIndex index, String[] texts, Result[][] results, int k, boolean proximity) throws IOException {
+        double overlapTop10 = 0;
+        double overlapTopK = 0;
+        int sameTop10 = 0;
+        int compared = 0;
+        for (int i = 0; i < texts.length; i++) {
+            if (texts[i] == null) {
+                continue;
+            }
+            Result[] exact = index.search(texts[i], k, QueryEngine.Algorithm.BMW, proximity);
+            if (exact.length == 0) {
+                continue;
+            }
+            overlapTop10 += overlap(exact, results[i], 10);
+            overlapTopK += overlap(exact, results[i], k);
+            boolean same = results[i].length >= Math.min(10, exact.length);
+            for (int rank = 0; same && rank < Math.min(10, exact.length); rank++) {
+                same = exact[rank].getDocId() == results[i][rank].getDocId();
+            }
+            if (same) {
+                sameTop10++;
+            }
+            compared++;
+        }
+        if (compared == 0) {
+            return;
+        }
+        System.out.println("Agreement with exact BM25 over " + compared + " queries: "
+            + String.format("%.1f", 100 * overlapTop10 / compared) + "% of the top 10, "
+            + (k > 10 ? String.format("%.1f", 100 * overlapTopK / compared) + "% of the top " + k + ", " : "")
+            + "same top 10 ranking for " + String.format("%.1f", 100.0 * sameTop10 / compared) + "% of queries");
+    }
+
+    // the fraction of the exact top n that the other results also have in their top n
+    private static double overlap(Result[] exact, Result[] other, int n) {
+        Set<Integer> exactDocIds = new HashSet<>();
+        for (int i = 0; i < Math.min(n, exact.length); i++) {
+            exactDocIds.add(exact[i].getDocId());
+        }
+        int shared = 0;
+        for (int i = 0; i < Math.min(n, other.length); i++) {
+            if (exactDocIds.contains(other[i].getDocId())) {
+                shared++;
+            }
+        }
+        return (double) shared / exactDocIds.size();
+    }
+
+    // a segmented index has one cache per segment, reported together
+    private static void printCache(String name, List<LruCache<?, ?>> caches) {
+        if (caches.isEmpty()) {
+            return;
+        }
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        long entries = 0;
+        long bytes = 0;
+        for (LruCache<?, ?> cache : caches) {
+            hits += cache.getHits();
+            misses += cache.getMisses();
+            evictions += cache.getEvictions();
+            entries += cache.size();
+            bytes += cache.getBytes();
+        }
+        double hitRate = hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        System.out.println(name + ": " + hits + " hits, " + misses + " misses ("
+            + String.format("%.1f", 100 * hitRate) + "% hit rate), " + evictions + " evictions, "
+            + entries + " entries, " + String.format("%.1f", bytes / Math.pow(2, 20)) + " MB");
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / Math.pow(10, 6);
+    }
+}
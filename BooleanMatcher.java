@@ -0,0 +1,252 @@
+import java.util.*;
+
+// Finds the documents that match a BooleanQuery, in increasing docid order. An AND leapfrogs: its clause with the
+// fewest postings proposes a document, each other clause advances to it, and the first that lands past it proposes
+// the next, so whole blocks of the longer lists are skipped by their headers and the work follows the shortest
+// list. An OR takes the smallest document of its clauses, a NOT advances its clause to each document its AND has
+// matched and drops those it lands on, and a phrase is the AND of its words checked with a PhraseMatcher.
+public class BooleanMatcher {
+    private Node root;
+    private Map<Integer, PostingsIterator> sharedCursors;
+    private List<PostingsIterator> cursors = new ArrayList<>();
+
+    // sharedCursors are postings cursors, by termid, for the matcher to use rather than open its own, and for the
+    // caller to advance to each document the matcher returns. Only a term that every match contains can share, since
+    // its cursor then never passes a match, and only once, as the query's clauses move through postings independently.
+    public BooleanMatcher(BooleanQuery query, InvertedIndex index, PositionalIndex positionalIndex, Map<Integer, PostingsIterator> sharedCursors) {
+        this.sharedCursors = new HashMap<>(sharedCursors);
+        root = create(query, index, positionalIndex, true);
+    }
+
+    // the first matching document at or after target, or PostingsIterator.END when there are no more
+    public int advance(int target) {
+        return root.advance(target);
+    }
+
+    // counts the postings decoded by the matcher's own cursors, not the shared ones
+    public void recordDecoding() {
+        long postings = 0;
+        long blocks = 0;
+        long headers = 0;
+        for (PostingsIterator cursor : cursors) {
+            postings += cursor.getDecodedCount();
+            blocks += cursor.getBlocksDecoded();
+            headers += cursor.getBlockIndex() + 1;
+        }
+        Metrics.POSTINGS_DECODED.add(postings);
+        Metrics.BLOCKS_DECODED.add(blocks);
+        Metrics.BLOCKS_READ.add(headers);
+    }
+
+    // inEveryMatch is true for the clauses that every match of the query matches
+    private Node create(BooleanQuery query, InvertedIndex index, PositionalIndex positionalIndex, boolean inEveryMatch) {
+        switch (query.getType()) {
+            case TERM: {
+                int termId = query.getTermIds()[0];
+                if (termId == 0) {
+                    return Node.EMPTY;
+                }
+                return new TermNode(getPostings(termId, index, inEveryMatch), index.getDocumentFrequency(termId));
+            }
+            case PHRASE: {
+                List<Node> words = new ArrayList<>();
+                for (int termId : query.getTermIds()) {
+                    if (termId == 0) {
+                        return Node.EMPTY;
+                    }
+                    words.add(new TermNode(getPostings(termId, index, inEveryMatch), index.getDocumentFrequency(termId)));
+                }
+                return new AndNode(words, new ArrayList<>(), new PhraseMatcher(query.getTermIds(), index, positionalIndex));
+            }
+            case AND: {
+                List<Node> required = new ArrayList<>();
+                List<Node> excluded = new ArrayList<>();
+                for (BooleanQuery clause : query.getClauses()) {
+                    if (clause.getType() == BooleanQuery.Type.NOT) {
+                        Node node = create(clause.getClauses()[0], index, positionalIndex, false);
+                        if (node != Node.EMPTY) {
+                            excluded.add(node);
+                        }
+                    } else {
+                        Node node = create(clause, index, positionalIndex, inEveryMatch);
+                        if (node == Node.EMPTY) {
+                            return Node.EMPTY;
+                        }
+                        required.add(node);
+                    }
+                }
+                if (required.isEmpty()) {
+                    return Node.EMPTY;
+                }
+                return required.size() == 1 && excluded.isEmpty() ? required.get(0) : new AndNode(required, excluded, null);
+            }
+            case OR: {
+                List<Node> clauses = new ArrayList<>();
+                for (BooleanQuery clause : query.getClauses()) {
+                    Node node = create(clause, index, positionalIndex, false);
+                    if (node != Node.EMPTY) {
+                        clauses.add(node);
+                    }
+                }
+                if (clauses.isEmpty()) {
+                    return Node.EMPTY;
+                }
+                return clauses.size() == 1 ? clauses.get(0) : new OrNode(clauses);
+            }
+            default:
+                // a NOT that is not a clause of an AND has nothing to exclude documents from
+                return Node.EMPTY;
+        }
+    }
+
+    private PostingsIterator getPostings(int termId, InvertedIndex index, boolean inEveryMatch) {
+        PostingsIterator cursor = inEveryMatch ? sharedCursors.remove(termId) : null;
+        if (cursor == null) {
+            cursor = index.getPostings(termId);
+            cursors.add(cursor);
+        }
+        return cursor;
+    }
+
+    private static abstract class Node {
+        static final Node EMPTY = new Node() {
+            public int advance(int target) {
+                return PostingsIterator.END;
+            }
+
+            public int getDocId() {
+                return PostingsIterator.END;
+            }
+
+            public long cost() {
+                return 0;
+            }
+        };
+
+        // moves to the first matching document at or after target and returns it; a node already there stays
+        public abstract int advance(int target);
+
+        // the current document: 0 before the first advance and PostingsIterator.END after the last
+        public abstract int getDocId();
+
+        // about how many documents the node can match, to order an AND's clauses by
+        public abstract long cost();
+    }
+
+    private static class TermNode extends Node {
+        private PostingsIterator cursor;
+        private int documentFrequency;
+
+        public TermNode(PostingsIterator cursor, int documentFrequency) {
+            this.cursor = cursor;
+            this.documentFrequency = documentFrequency;
+        }
+
+        public int advance(int target) {
+            return cursor.advance(target) ? cursor.getDocId() : PostingsIterator.END;
+        }
+
+        public int getDocId() {
+            return cursor.getDocId();
+        }
+
+        public long cost() {
+            return documentFrequency;
+        }
+    }
+
+    private static class AndNode extends Node {
+        private Node[] required;
+        private Node[] excluded;
+        private PhraseMatcher phrase;
+        private int docId = 0;
+
+        public AndNode(List<Node> required, List<Node> excluded, PhraseMatcher phrase) {
+            required.sort(Comparator.comparingLong(Node::cost));
+            this.required = required.toArray(new Node[0]);
+            this.excluded = excluded.toArray(new Node[0]);
+            this.phrase = phrase;
+        }
+
+        public int advance(int target) {
+            if (docId >= target) {
+                return docId;
+            }
+            int candidate = target;
+            while (true) {
+                candidate = required[0].advance(candidate);
+                int i = 1;
+                while (i < required.length && candidate != PostingsIterator.END) {
+                    int next = required[i].advance(candidate);
+                    if (next == candidate) {
+                        i++;
+                    } else {
+                        // clause i has no posting at the candidate, so the shortest list skips ahead to where it is
+                        candidate = next == PostingsIterator.END ? next : required[0].advance(next);
+                        i = 1;
+                    }
+                }
+                if (candidate == PostingsIterator.END) {
+                    return docId = PostingsIterator.END;
+                }
+                if (!isExcluded(candidate) && (phrase == null || phrase.matches(candidate))) {
+                    return docId = candidate;
+                }
+                candidate++;
+            }
+        }
+
+        private boolean isExcluded(int candidate) {
+            for (Node node : excluded) {
+                if (node.getDocId() <= candidate && node.advance(candidate) == candidate) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public int getDocId() {
+            return docId;
+        }
+
+        public long cost() {
+            return required[0].cost();
+        }
+    }
+
+    private static class OrNode extends Node {
+        private Node[] clauses;
+        private int docId = 0;
+
+        public OrNode(List<Node> clauses) {
+            this.clauses = clauses.toArray(new Node[0]);
+        }
+
+        public int advance(int target) {
+            if (docId >= target) {
+                return docId;
+            }
+            int next = PostingsIterator.END;
+            for (Node clause : clauses) {
+                int clauseDocId = clause.getDocId();
+                if (clauseDocId < target) {
+                    clauseDocId = clause.advance(target);
+                }
+                next = Math.min(next, clauseDocId);
+            }
+            return docId = next;
+        }
+
+        public int getDocId() {
+            return docId;
+        }
+
+        public long cost() {
+            long cost = 0;
+            for (Node clause : clauses) {
+                cost += clause.cost();
+            }
+            return cost;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.util.*;
+import java.util.regex.Matcher;
+
+// A query whose words and "quoted phrases" are combined with the operators AND, OR and NOT, written in capitals,
+// with parentheses for grouping, e.g. "los angeles" AND (police OR sheriff) NOT fire. NOT binds tightest, then AND,
+// then OR, and operands written side by side must all match, as with AND. NOT only excludes documents from the
+// clause it is ANDed with, so a clause made only of negated operands matches nothing. A word that the tokenizer
+// splits in several, such as u.s., must match all of them. Stray operators and unbalanced parentheses are ignored.
+// Each node is a term, a phrase, or an AND, OR or NOT of its clauses; termids are those of the lexicon the query
+// was parsed with, and 0 for words that are not in it, which match nothing.
+public class BooleanQuery {
+    public enum Type { TERM, PHRASE, AND, OR, NOT }
+
+    private Type type;
+    private int[] termIds;
+    private BooleanQuery[] clauses;
+
+    private BooleanQuery(Type type, int[] termIds, BooleanQuery[] clauses) {
+        this.type = type;
+        this.termIds = termIds;
+        this.clauses = clauses;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    // the termid of a term, or the termids of a phrase's words
+    public int[] getTermIds() {
+        return termIds;
+    }
+
+    public BooleanQuery[] getClauses() {
+        return clauses;
+    }
+
+    public boolean hasPhrases() {
+        if (type == Type.PHRASE) {
+            return true;
+        }
+        for (BooleanQuery clause : clauses) {
+            if (clause.hasPhrases()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // true when the text uses an operator outside its phrases, and so is read as a Boolean query
+    public static boolean isBoolean(String text) {
+        for (String lexeme : lex(text)) {
+            if (isOperator(lexeme)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOperator(String lexeme) {
+        return lexeme.equals("AND") || lexeme.equals("OR") || lexeme.equals("NOT");
+    }
+
+    // Parses the text, adding the words that are not negated to terms, termIds and weights, as Query lists them to
+    // be scored with BM25. Returns null when the text has no operands.
+    public static BooleanQuery parse(String text, Lexicon lexicon, List<String> terms, List<Integer> termIds, List<Double> weights) {
+        Parser parser = new Parser(lex(text), lexicon, terms, termIds, weights);
+        BooleanQuery query = null;
+        while (parser.position < parser.lexemes.size()) {
+            // a closing parenthesis with no opening one ends the top-level clause early; the rest is ANDed to it
+            BooleanQuery clause = parser.parseOr(false);
+            query = query == null ? clause : clause == null ? query : new BooleanQuery(Type.AND, null, new BooleanQuery[] {query, clause});
+            parser.position++;
+        }
+        return query;
+    }
+
+    // the text as parentheses, "phrases" (with their quotes), and words, which include operators; an unclosed
+    // quote is ignored, as in Query
+    private static List<String> lex(String text) {
+        List<String> lexemes = new ArrayList<>();
+        int quotes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                quotes++;
+            }
+        }
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                lexemes.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                quotes--;
+                if (end == -1 || quotes == 0) {
+                    i++;
+                    continue;
+                }
+                quotes--;
+                lexemes.add(text.substring(i, end + 1));
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end)) && "()\"".indexOf(text.charAt(end)) == -1) {
+                    end++;
+                }
+                lexemes.add(text.substring(i, end));
+                i = end;
+            }
+        }
+        return lexemes;
+    }
+
+    private static class Parser {
+        private List<String> lexemes;
+        private int position = 0;
+        private Lexicon lexicon;
+        private List<String> terms;
+        private List<Integer> termIds;
+        private List<Double> weights;
+
+        public Parser(List<String> lexemes, Lexicon lexicon, List<String> terms, List<Integer> termIds, List<Double> weights) {
+            this.lexemes = lexemes;
+            this.lexicon = lexicon;
+            this.terms = terms;
+            this.termIds = termIds;
+            this.weights = weights;
+        }
+
+        private String peek() {
+            return position < lexemes.size() ? lexemes.get(position) : null;
+        }
+
+        // stops at a closing parenthesis, which the caller consumes
+        public BooleanQuery parseOr(boolean negated) {
+            List<BooleanQuery> clauses = new ArrayList<>();
+            while (peek() != null && !peek().equals(")")) {
+                if (peek().equals("OR")) {
+                    position++;
+                    continue;
+                }
+                BooleanQuery clause = parseAnd(negated);
+                if (clause != null) {
+                    clauses.add(clause);
+                }
+            }
+            return combine(Type.OR, clauses);
+        }
+
+        private BooleanQuery parseAnd(boolean negated) {
+            List<BooleanQuery> clauses = new ArrayList<>();
+            while (peek() != null && !peek().equals(")") && !peek().equals("OR")) {
+                if (peek().equals("AND")) {
+                    position++;
+                    continue;
+                }
+                BooleanQuery clause = parseUnary(negated);
+                if (clause != null) {
+                    clauses.add(clause);
+                }
+            }
+            return combine(Type.AND, clauses);
+        }
+
+        private BooleanQuery parseUnary(boolean negated) {
+            String lexeme = lexemes.get(position++);
+            if (lexeme.equals("NOT")) {
+                if (peek() == null || peek().equals("AND") || peek().equals("OR") || peek().equals(")")) {
+                    return null;
+                }
+                BooleanQuery clause = parseUnary(!negated);
+                if (clause == null || clause.type == Type.NOT) {
+                    return clause == null ? null : clause.clauses[0];
+                }
+                return new BooleanQuery(Type.NOT, null, new BooleanQuery[] {clause});
+            } else if (lexeme.equals("(")) {
+                BooleanQuery clause = parseOr(negated);
+                position++;
+                return clause;
+            } else if (lexeme.startsWith("\"")) {
+                String[] tokens = HelperFunctions.tokenizeText(lexeme.substring(1, lexeme.length() - 1));
+                if (tokens.length == 0) {
+                    return null;
+                }
+                int[] ids = lookUp(tokens, 1, negated);
+                return new BooleanQuery(tokens.length == 1 ? Type.TERM : Type.PHRASE, ids, new BooleanQuery[0]);
+            }
+            double weight = 1;
+            Matcher matcher = Query.WEIGHTED_WORD.matcher(lexeme);
+            if (matcher.matches()) {
+                lexeme = matcher.group(1);
+                weight = Double.parseDouble(matcher.group(2));
+            }
+            String[] tokens = HelperFunctions.tokenizeText(lexeme);
+            int[] ids = lookUp(tokens, weight, negated);
+            List<BooleanQuery> clauses = new ArrayList<>();
+            for (int id : ids) {
+                clauses.add(new BooleanQuery(Type.TERM, new int[] {id}, new BooleanQuery[0]));
+            }
+            return combine(Type.AND, clauses);
+        }
+
+        private int[] lookUp(String[] tokens, double weight, boolean negated) {
+            int[] ids = new int[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                ids[i] = lexicon.getTermId(tokens[i]);
+                if (ids[i] != 0 && !negated) {
+                    terms.add(tokens[i]);
+                    termIds.add(ids[i]);
+                    weights.add(weight);
+                }
+            }
+            return ids;
+        }
+
+        private static BooleanQuery combine(Type type, List<BooleanQuery> clauses) {
+            if (clauses.isEmpty()) {
+                return null;
+            }
+            return clauses.size() == 1 ? clauses.get(0) : new BooleanQuery(type, null, clauses.toArray(new BooleanQuery[0]));
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof BooleanQuery)) {
+            return false;
+        }
+        BooleanQuery query = (BooleanQuery) other;
+        return type == query.type && Arrays.equals(termIds, query.termIds) && Arrays.equals(clauses, query.clauses);
+    }
+
+    @Override
+    public int hashCode() {
+        return (type.ordinal() * 31 + Arrays.hashCode(termIds)) * 31 + Arrays.hashCode(clauses);
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.*;
+
+public class CollectionStatistics {
+    public static final String STATISTICS_FILE = "collection-stats.txt";
+
+    private int documentCount;
+    private long totalLength;
+
+    public CollectionStatistics(int documentCount, long totalLength) {
+        this.documentCount = documentCount;
+        this.totalLength = totalLength;
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    public double getAverageLength() {
+        return documentCount == 0 ? 0 : (double) totalLength / documentCount;
+    }
+
+    public void save(String directory) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(new File(directory, STATISTICS_FILE)));
+        writer.write("documents " + documentCount);
+        writer.newLine();
+        writer.write("total-length " + totalLength);
+        writer.newLine();
+        writer.write("average-length " + getAverageLength());
+        writer.newLine();
+        writer.close();
+    }
+
+    public static CollectionStatistics load(String directory) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(new File(directory, STATISTICS_FILE)));
+        int documentCount = 0;
+        long totalLength = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.split(" ");
+            if (fields[0].equals("documents")) {
+                documentCount = Integer.parseInt(fields[1]);
+            } else if (fields[0].equals("total-length")) {
+                totalLength = Long.parseLong(fields[1]);
+            }
+        }
+        reader.close();
+        return new CollectionStatistics(documentCount, totalLength);
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+// A postings list decoded into arrays, with the block headers kept alongside so a PostingsIterator over it
+// can still skip and bound blocks exactly as it does over the encoded list.
+public class DecodedPostings {
+    private int[] docIds;
+    private int[] tfs;
+    private int[] blockLastDocIds;
+    private int[] blockMaxTfs;
+    private int[] blockMinDocLengths;
+
+    public DecodedPostings(PostingsIterator postings, int documentFrequency) {
+        int blockCount = (documentFrequency + PostingsWriter.BLOCK_SIZE - 1) / PostingsWriter.BLOCK_SIZE;
+        docIds = new int[documentFrequency];
+        tfs = new int[documentFrequency];
+        blockLastDocIds = new int[blockCount];
+        blockMaxTfs = new int[blockCount];
+        blockMinDocLengths = new int[blockCount];
+
+        int i = 0;
+        while (postings.next()) {
+            if (i % PostingsWriter.BLOCK_SIZE == 0) {
+                int block = i / PostingsWriter.BLOCK_SIZE;
+                blockLastDocIds[block] = postings.getBlockLastDocId();
+                blockMaxTfs[block] = postings.getBlockMaxTf();
+                blockMinDocLengths[block] = postings.getBlockMinDocLength();
+            }
+            docIds[i] = postings.getDocId();
+            tfs[i] = postings.getTf();
+            i++;
+        }
+        if (i != documentFrequency) {
+            docIds = Arrays.copyOf(docIds, i);
+            tfs = Arrays.copyOf(tfs, i);
+        }
+    }
+
+    public int getDocumentFrequency() {
+        return docIds.length;
+    }
+
+    public int getDocId(int i) {
+        return docIds[i];
+    }
+
+    public int getTf(int i) {
+        return tfs[i];
+    }
+
+    public int getBlockLastDocId(int block) {
+        return blockLastDocIds[block];
+    }
+
+    public int getBlockMaxTf(int block) {
+        return blockMaxTfs[block];
+    }
+
+    public int getBlockMinDocLength(int block) {
+        return blockMinDocLengths[block];
+    }
+
+    public long sizeInBytes() {
+        return 4L * (docIds.length + tfs.length + 3L * blockLastDocIds.length) + 5 * 16;
+    }
+}
@@ -0,0 +1,12 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+// Supplies the raw <DOC> ... </DOC> text of each document to index, in the order they are to be numbered.
+public interface DocumentSource extends Closeable {
+    // returns null when there are no more documents
+    String nextDocument() throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class DocumentStore {
+    public static final String DOCUMENTS_FILE = "documents.bin";
+    public static final String INDEX_FILE = "documents-index.bin";
+    public static final String METADATA_FILE = "metadata.bin";
+    public static final String HEADLINES_FILE = "headlines.bin";
+    static final int INDEX_ENTRY_SIZE = 20;
+    static final int METADATA_ENTRY_SIZE = 16;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MMMM d, yyyy");
+
+    private MappedFile documents;
+    private MappedFile index;
+    private MappedFile metadata;
+    private MappedFile headlines;
+    private SentenceStore sentenceStore;
+
+    public DocumentStore(String directory) throws IOException {
+        documents = new MappedFile(new File(directory, DOCUMENTS_FILE));
+        index = new MappedFile(new File(directory, INDEX_FILE));
+        metadata = new MappedFile(new File(directory, METADATA_FILE));
+        headlines = new MappedFile(new File(directory, HEADLINES_FILE));
+        if (SentenceStore.exists(directory)) {
+            sentenceStore = new SentenceStore(directory);
+        }
+    }
+
+    public String getDocument(int docId) throws IOException {
+        long entry = (long) (docId - 1) * INDEX_ENTRY_SIZE;
+        long blockOffset = index.getLong(entry);
+        int blockLength = index.getInt(entry + 8);
+        int offsetInBlock = index.getInt(entry + 12);
+        int length = index.getInt(entry + 16);
+
+        // only the prefix of the block up to the end of this document is inflated
+        ByteBuffer block = documents.slice(blockOffset, blockOffset + blockLength);
+        byte[] bytes = new byte[offsetInBlock + length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(block);
+            int inflated = 0;
+            while (inflated < bytes.length && !inflater.finished() && !inflater.needsInput()) {
+                inflated += inflater.inflate(bytes, inflated, bytes.length - inflated);
+            }
+            if (inflated < bytes.length) {
+                throw new IOException("truncated document block for docid " + docId);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt document block for docid " + docId);
+        } finally {
+            inflater.end();
+        }
+        return new String(bytes, offsetInBlock, length, StandardCharsets.UTF_8);
+    }
+
+    public String getHeadline(int docId) {
+        long entry = (long) (docId - 1) * METADATA_ENTRY_SIZE;
+        long offset = metadata.getLong(entry);
+        byte[] bytes = new byte[metadata.getInt(entry + 8)];
+        headlines.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public String getDate(int docId) {
+        return LocalDate.ofEpochDay(getEpochDay(docId)).format(DATE_FORMAT);
+    }
+
+    // the date as days since 1970-01-01, for ordering documents by date
+    public int getEpochDay(int docId) {
+        return metadata.getInt((long) (docId - 1) * METADATA_ENTRY_SIZE + 12);
+    }
+
+    // the documents' pre-split snippet sentences, or null for an index written before they were stored
+    public SentenceStore getSentenceStore() {
+        return sentenceStore;
+    }
+}
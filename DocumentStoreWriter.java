@@ -0,0 +1,121 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+public class DocumentStoreWriter {
+    private static final int BLOCK_DOCUMENTS = 16;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private FileOutputStream documentsFile;
+    private DataOutputStream indexOut;
+    private DataOutputStream metadataOut;
+    private FileOutputStream headlinesFile;
+    private OutputStream headlinesOut;
+    private long documentsOffset = 0;
+    private long headlinesOffset = 0;
+
+    private ByteArrayOutputStream block = new ByteArrayOutputStream();
+    private int[] blockOffsets = new int[BLOCK_DOCUMENTS];
+    private int[] blockLengths = new int[BLOCK_DOCUMENTS];
+    private int blockCount = 0;
+    private Deflater deflater = new Deflater();
+    private byte[] compressed = new byte[BUFFER_SIZE];
+
+    public DocumentStoreWriter(File directory) throws IOException {
+        documentsFile = new FileOutputStream(new File(directory, DocumentStore.DOCUMENTS_FILE));
+        indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, DocumentStore.INDEX_FILE)), BUFFER_SIZE));
+        metadataOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, DocumentStore.METADATA_FILE)), BUFFER_SIZE));
+        headlinesFile = new FileOutputStream(new File(directory, DocumentStore.HEADLINES_FILE));
+        headlinesOut = new BufferedOutputStream(headlinesFile, BUFFER_SIZE);
+    }
+
+    public void add(String document, String headline, LocalDate date) throws IOException {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        blockOffsets[blockCount] = block.size();
+        blockLengths[blockCount] = bytes.length;
+        block.write(bytes);
+        blockCount++;
+
+        byte[] headlineBytes = headline.getBytes(StandardCharsets.UTF_8);
+        metadataOut.writeLong(headlinesOffset);
+        metadataOut.writeInt(headlineBytes.length);
+        metadataOut.writeInt((int) date.toEpochDay());
+        headlinesOut.write(headlineBytes);
+        headlinesOffset += headlineBytes.length;
+
+        if (blockCount == BLOCK_DOCUMENTS) {
+            flushBlock();
+        }
+    }
+
+    // appends every document of another store as it is, copying its compressed blocks rather than inflating and
+    // deflating them again; a partial block of documents added before is written out first
+    public void append(String directory) throws IOException {
+        if (blockCount > 0) {
+            flushBlock();
+        }
+        long documentsLength;
+        try (InputStream in = new FileInputStream(new File(directory, DocumentStore.DOCUMENTS_FILE))) {
+            documentsLength = in.transferTo(documentsFile);
+        }
+        File indexFile = new File(directory, DocumentStore.INDEX_FILE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), BUFFER_SIZE))) {
+            for (long i = indexFile.length() / DocumentStore.INDEX_ENTRY_SIZE; i > 0; i--) {
+                indexOut.writeLong(in.readLong() + documentsOffset);
+                indexOut.writeInt(in.readInt());
+                indexOut.writeInt(in.readInt());
+                indexOut.writeInt(in.readInt());
+            }
+        }
+        documentsOffset += documentsLength;
+
+        File metadataFile = new File(directory, DocumentStore.METADATA_FILE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(metadataFile), BUFFER_SIZE))) {
+            for (long i = metadataFile.length() / DocumentStore.METADATA_ENTRY_SIZE; i > 0; i--) {
+                metadataOut.writeLong(in.readLong() + headlinesOffset);
+                metadataOut.writeInt(in.readInt());
+                metadataOut.writeInt(in.readInt());
+            }
+        }
+        try (InputStream in = new FileInputStream(new File(directory, DocumentStore.HEADLINES_FILE))) {
+            headlinesOffset += in.transferTo(headlinesOut);
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        deflater.reset();
+        deflater.setInput(block.toByteArray());
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        documentsFile.write(compressed, 0, compressedLength);
+
+        for (int i = 0; i < blockCount; i++) {
+            indexOut.writeLong(documentsOffset);
+            indexOut.writeInt(compressedLength);
+            indexOut.writeInt(blockOffsets[i]);
+            indexOut.writeInt(blockLengths[i]);
+        }
+        documentsOffset += compressedLength;
+        block.reset();
+        blockCount = 0;
+    }
+
+    public void close() throws IOException {
+        if (blockCount > 0) {
+            flushBlock();
+        }
+        deflater.end();
+        documentsFile.close();
+        indexOut.close();
+        metadataOut.close();
+        headlinesOut.close();
+    }
+}
@@ -0,0 +1,49 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+
+// Each document's distinct terms and their frequencies, written by IndexEngine as it indexes the document, so a
+// document's terms are read back without reading or tokenizing its text. forward.bin holds, per document, its
+// number of distinct terms and then each term as a variable-byte termid gap (termids ascending) and term
+// frequency. forward-index.bin holds the start of each document's terms (8 bytes per docid).
+public class ForwardIndex {
+    public static final String FORWARD_FILE = "forward.bin";
+    public static final String INDEX_FILE = "forward-index.bin";
+
+    private MappedFile forward;
+    private MappedFile index;
+    private int documentCount;
+
+    public ForwardIndex(String directory) throws IOException {
+        forward = new MappedFile(new File(directory, FORWARD_FILE));
+        index = new MappedFile(new File(directory, INDEX_FILE));
+        documentCount = (int) (index.size() / 8);
+    }
+
+    public static boolean exists(String directory) {
+        return new File(directory, FORWARD_FILE).exists() && new File(directory, INDEX_FILE).exists();
+    }
+
+    public int getTermCount(int docId) {
+        return HelperFunctions.readVByte(position(docId));
+    }
+
+    // fills termIds and tfs, which must hold getTermCount(docId) entries, with the document's terms in termid
+    // order, and returns how many there are
+    public int getTerms(int docId, int[] termIds, int[] tfs) {
+        ByteBuffer buffer = position(docId);
+        int count = HelperFunctions.readVByte(buffer);
+        int termId = 0;
+        for (int i = 0; i < count; i++) {
+            termId += HelperFunctions.readVByte(buffer);
+            termIds[i] = termId;
+            tfs[i] = HelperFunctions.readVByte(buffer);
+        }
+        return count;
+    }
+
+    private ByteBuffer position(int docId) {
+        long start = index.getLong((docId - 1) * 8L);
+        long end = docId < documentCount ? index.getLong(docId * 8L) : forward.size();
+        return forward.slice(start, end);
+    }
+}
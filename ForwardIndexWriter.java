@@ -0,0 +1,46 @@
+import java.io.*;
+import java.util.Arrays;
+
+public class ForwardIndexWriter {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private OutputStream forwardOut;
+    private DataOutputStream indexOut;
+    private ByteArrayOutputStream vector = new ByteArrayOutputStream();
+    private long[] sorted = new long[256];
+    private long offset = 0;
+
+    public ForwardIndexWriter(File directory) throws IOException {
+        forwardOut = new BufferedOutputStream(new FileOutputStream(new File(directory, ForwardIndex.FORWARD_FILE)), BUFFER_SIZE);
+        indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, ForwardIndex.INDEX_FILE)), BUFFER_SIZE));
+    }
+
+    // termIds and counts give the termid and term frequency of each of the document's distinct terms
+    public void add(int[] termIds, int[] counts) throws IOException {
+        if (termIds.length > sorted.length) {
+            sorted = new long[Math.max(termIds.length, sorted.length * 2)];
+        }
+        for (int i = 0; i < termIds.length; i++) {
+            sorted[i] = (long) termIds[i] << 32 | counts[i];
+        }
+        Arrays.sort(sorted, 0, termIds.length);
+
+        vector.reset();
+        HelperFunctions.writeVByte(vector, termIds.length);
+        int previousTermId = 0;
+        for (int i = 0; i < termIds.length; i++) {
+            int termId = (int) (sorted[i] >>> 32);
+            HelperFunctions.writeVByte(vector, termId - previousTermId);
+            HelperFunctions.writeVByte(vector, (int) sorted[i]);
+            previousTermId = termId;
+        }
+        indexOut.writeLong(offset);
+        vector.writeTo(forwardOut);
+        offset += vector.size();
+    }
+
+    public void close() throws IOException {
+        forwardOut.close();
+        indexOut.close();
+    }
+}
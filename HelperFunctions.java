@@ -1,11 +1,8 @@
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class HelperFunctions { 
-    public static String getDirectoryPath(String docNo) {
-        return docNo.substring(6, 8) + "/" + docNo.substring(4, 6) + "/" + docNo.substring(2, 4);
-    }
-
     public static Document[] loadDocuments(String directory) throws IOException { 
         File docnosFile = new File(directory, "docnos.txt");
         File docLengthsFile = new File(directory, "doc-lengths.txt");
@@ -27,23 +24,6 @@ public class HelperFunctions {
         return documents.toArray(new Document[documents.size()]);
     }
 
-    public static HashMap<String, Integer> loadLexicon(String directory) throws IOException {
-        File lexiconFile = new File(directory, "lexicon.txt");
-        BufferedReader reader = new BufferedReader(new FileReader(lexiconFile));
-
-        HashMap<String, Integer> lexicon = new HashMap<>();
-        String token;
-        int i = 1;
-        
-        while ((token = reader.readLine()) != null) { 
-            lexicon.put(token, i);
-            i++;
-        }
-        reader.close();
-
-        return lexicon;
-    }
-
     public static String[] tokenizeText(String text) { 
         text = text.toLowerCase();
         List<String> tokens = new ArrayList<>();
@@ -66,17 +46,50 @@ public class HelperFunctions {
         return tokens.toArray(new String[tokens.size()]);
     }
 
-    public static int[] convertTokensToIds(String[] tokens, Map<String, Integer> lexicon) { 
-        List<Integer> tokenIds = new ArrayList<>();
+    public static int[] convertTokensToIds(String[] tokens, Lexicon lexicon) { 
+        int[] tokenIds = new int[tokens.length];
+        int count = 0;
         
         for (int i = 0; i < tokens.length; i++) {
-            String token = tokens[i];
+            int tokenId = lexicon.getTermId(tokens[i]);
             
-            if (lexicon.containsKey(token)) {
-                tokenIds.add(lexicon.get(token));
+            if (tokenId != 0) {
+                tokenIds[count++] = tokenId;
             }
         }
 
-        return tokenIds.stream().mapToInt(Integer::intValue).toArray();
+        return count == tokenIds.length ? tokenIds : Arrays.copyOf(tokenIds, count);
+    }
+
+    public static void writeVByte(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    public static int readVByte(ByteBuffer buffer) {
+        int b = buffer.get();
+        int value = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    public static int readVByte(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
     }
 }
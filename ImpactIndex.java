@@ -0,0 +1,195 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Precomputed BM25 term-document scores, written by IndexEngine --impacts, for score-at-a-time search. Each
+// posting's impact, idf * tf/(K + tf), is quantized linearly to 1..255 against the largest impact in the index, so
+// a document's score is a sum of small integers times one scale. Each term's postings are grouped by impact, highest
+// first: impacts.bin holds, per term, the number of groups and then for each group its impact, posting count and
+// byte length, followed by its docids in ascending order as variable-byte gaps. impacts-offsets.bin holds the scale
+// (a double) and then the start of each term's groups (8 bytes per termid). Terms in more than half the documents
+// have an idf that is not positive and no impacts, as impacts only add to a score, so score-at-a-time search
+// ignores them where the other algorithms subtract their scores, and can rank queries with such terms differently.
+public class ImpactIndex {
+    public static final String IMPACTS_FILE = "impacts.bin";
+    public static final String OFFSETS_FILE = "impacts-offsets.bin";
+    public static final int MAX_IMPACT = 255;
+    // no term has more groups than there are impacts
+    public static final int MAX_SEGMENTS = MAX_IMPACT;
+
+    private MappedFile impacts;
+    private MappedFile offsets;
+    private int termCount;
+    private double scale;
+
+    public ImpactIndex(String directory) throws IOException {
+        impacts = new MappedFile(new File(directory, IMPACTS_FILE));
+        offsets = new MappedFile(new File(directory, OFFSETS_FILE));
+        termCount = (int) ((offsets.size() - 8) / 8);
+        scale = offsets.getDouble(0);
+    }
+
+    public static boolean exists(String directory) {
+        return new File(directory, IMPACTS_FILE).exists() && new File(directory, OFFSETS_FILE).exists();
+    }
+
+    // the BM25 score of one unit of quantized impact
+    public double getScale() {
+        return scale;
+    }
+
+    // a buffer over the term's groups, for one thread to decode them with
+    public ByteBuffer getImpacts(int termId) {
+        long start = offsets.getLong(8 + (termId - 1) * 8L);
+        long end = termId < termCount ? offsets.getLong(8 + termId * 8L) : impacts.size();
+        return impacts.slice(start, end);
+    }
+
+    // Appends the groups in a buffer from getImpacts, starting at index from: their impacts, posting counts and the
+    // positions of their docids in the buffer. Returns the new number of groups, which grows by at most MAX_SEGMENTS.
+    public int readSegments(ByteBuffer buffer, int[] segmentImpacts, int[] segmentCounts, int[] segmentStarts, int from) {
+        int segmentCount = HelperFunctions.readVByte(buffer);
+        for (int i = 0; i < segmentCount; i++) {
+            segmentImpacts[from] = HelperFunctions.readVByte(buffer);
+            segmentCounts[from] = HelperFunctions.readVByte(buffer);
+            int length = HelperFunctions.readVByte(buffer);
+            segmentStarts[from] = buffer.position();
+            buffer.position(buffer.position() + length);
+            from++;
+        }
+        return from;
+    }
+
+    // Writes the impacts of each directory's index. The directories are the shards of one collection, or a single
+    // index: BM25 is computed with their combined document count, average length and document frequencies, and
+    // quantized against their overall largest impact, so every shard's scores are on the same scale and agree with
+    // those of an unsharded index.
+    public static void write(List<String> directories) throws IOException {
+        InvertedIndex[] indexes = new InvertedIndex[directories.size()];
+        Document[][] documents = new Document[directories.size()][];
+        int documentCount = 0;
+        long totalLength = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = new InvertedIndex(directories.get(i));
+            documents[i] = HelperFunctions.loadDocuments(directories.get(i));
+            CollectionStatistics statistics = CollectionStatistics.load(directories.get(i));
+            documentCount += statistics.getDocumentCount();
+            totalLength += statistics.getTotalLength();
+        }
+        double averageLength = new CollectionStatistics(documentCount, totalLength).getAverageLength();
+
+        int termCount = indexes[0].getTermCount();
+        double[] idfs = new double[termCount + 1];
+        for (int termId = 1; termId <= termCount; termId++) {
+            int documentFrequency = 0;
+            for (InvertedIndex index : indexes) {
+                documentFrequency += index.getDocumentFrequency(termId);
+            }
+            idfs[termId] = QueryEngine.idf(documentFrequency, documentCount);
+        }
+
+        double maxImpact = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            double[] documentK = documentK(documents[i], averageLength);
+            for (int termId = 1; termId <= termCount; termId++) {
+                if (idfs[termId] <= 0) {
+                    continue;
+                }
+                PostingsIterator postings = indexes[i].getPostings(termId);
+                while (postings.next()) {
+                    int tf = postings.getTf();
+                    maxImpact = Math.max(maxImpact, idfs[termId] * tf / (documentK[postings.getDocId()] + tf));
+                }
+            }
+        }
+
+        for (int i = 0; i < indexes.length; i++) {
+            write(directories.get(i), indexes[i], documentK(documents[i], averageLength), idfs, maxImpact);
+        }
+    }
+
+    private static double[] documentK(Document[] documents, double averageLength) {
+        double[] documentK = new double[documents.length + 1];
+        for (Document document : documents) {
+            documentK[document.getId()] = QueryEngine.K(document.getLength(), averageLength);
+        }
+        return documentK;
+    }
+
+    private static void write(String directory, InvertedIndex index, double[] documentK, double[] idfs, double maxImpact) throws IOException {
+        int termCount = index.getTermCount();
+        DataOutputStream impactsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, IMPACTS_FILE)), 1 << 16));
+        DataOutputStream offsetsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, OFFSETS_FILE)), 1 << 16));
+        offsetsOut.writeDouble(maxImpact / MAX_IMPACT);
+
+        int[] docIds = new int[16];
+        int[] termImpacts = new int[16];
+        int[] order = new int[16];
+        int[] impactCounts = new int[MAX_IMPACT + 2];
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        // each term's groups are assembled here, so the offsets can run past what impactsOut.size() counts
+        ByteArrayOutputStream groups = new ByteArrayOutputStream();
+        long offset = 0;
+        for (int termId = 1; termId <= termCount; termId++) {
+            offsetsOut.writeLong(offset);
+            int count = 0;
+            if (idfs[termId] > 0) {
+                int documentFrequency = index.getDocumentFrequency(termId);
+                if (documentFrequency > docIds.length) {
+                    docIds = new int[documentFrequency];
+                    termImpacts = new int[documentFrequency];
+                    order = new int[documentFrequency];
+                }
+                PostingsIterator postings = index.getPostings(termId);
+                while (postings.next()) {
+                    int docId = postings.getDocId();
+                    int tf = postings.getTf();
+                    double impact = idfs[termId] * tf / (documentK[docId] + tf);
+                    docIds[count] = docId;
+                    termImpacts[count] = Math.max(1, Math.min(MAX_IMPACT, (int) Math.ceil(impact / maxImpact * MAX_IMPACT)));
+                    count++;
+                }
+            }
+
+            // counting sort by impact, highest first; postings arrive in docid order and the sort is stable
+            Arrays.fill(impactCounts, 0);
+            for (int i = 0; i < count; i++) {
+                impactCounts[MAX_IMPACT - termImpacts[i] + 1]++;
+            }
+            int segmentCount = 0;
+            for (int bucket = 0; bucket <= MAX_IMPACT; bucket++) {
+                if (impactCounts[bucket + 1] > 0) {
+                    segmentCount++;
+                }
+                impactCounts[bucket + 1] += impactCounts[bucket];
+            }
+            for (int i = 0; i < count; i++) {
+                order[impactCounts[MAX_IMPACT - termImpacts[i]]++] = i;
+            }
+
+            groups.reset();
+            HelperFunctions.writeVByte(groups, segmentCount);
+            int i = 0;
+            while (i < count) {
+                int impact = termImpacts[order[i]];
+                int end = i;
+                segment.reset();
+                int previousDocId = 0;
+                while (end < count && termImpacts[order[end]] == impact) {
+                    HelperFunctions.writeVByte(segment, docIds[order[end]] - previousDocId);
+                    previousDocId = docIds[order[end]];
+                    end++;
+                }
+                HelperFunctions.writeVByte(groups, impact);
+                HelperFunctions.writeVByte(groups, end - i);
+                HelperFunctions.writeVByte(groups, segment.size());
+                segment.writeTo(groups);
+                i = end;
+            }
+            groups.writeTo(impactsOut);
+            offset += groups.size();
+        }
+        impactsOut.close();
+        offsetsOut.close();
+    }
+}
@@ -1,206 +1,463 @@
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
-import java.util.regex.*;
-import java.util.zip.GZIPInputStream;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.util.concurrent.*;
 
 public class IndexEngine {
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.out.println("Usage: java IndexEngine.java <path_to_latimes.gz> <path_to_output_directory>");
+        List<String> paths = new ArrayList<>();
+        long memoryBudget = 256L << 20;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        int readerCount = Runtime.getRuntime().availableProcessors();
+        boolean positional = false;
+        boolean impacts = false;
+        boolean append = false;
+        int shardCount = 1;
+        Partition partition = Partition.RANGE;
+        String metricsPath = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--memory") && i + 1 < args.length) {
+                memoryBudget = Long.parseLong(args[++i]) << 20;
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threadCount = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--readers") && i + 1 < args.length) {
+                readerCount = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsPath = args[++i];
+            } else if (args[i].equals("--positions")) {
+                positional = true;
+            } else if (args[i].equals("--impacts")) {
+                impacts = true;
+            } else if (args[i].equals("--append")) {
+                append = true;
+            } else if (args[i].equals("--shards") && i + 1 < args.length) {
+                shardCount = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--partition") && i + 1 < args.length) {
+                try {
+                    partition = Partition.valueOf(args[++i].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    paths.clear();
+                    break;
+                }
+            } else {
+                paths.add(args[i]);
+            }
+        }
+
+        if (paths.size() != 2 || (append && shardCount > 1)) {
+            System.out.println("Usage: java IndexEngine.java [--memory <megabytes>] [--threads <count>] [--readers <count>] [--metrics <path>] [--positions] [--impacts] [--append | --shards <count> [--partition <range|hash>]] <path_to_input> <path_to_output_directory>");
             System.exit(1);
         }
 
-        String inputFilePath = args[0];
-        String outputDirectoryPath = args[1];
+        String outputDirectoryPath = paths.get(1);
+        List<File> inputFiles = null;
+        try {
+            inputFiles = InputFiles.resolve(paths.get(0));
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
 
         File outputDirectory = new File(outputDirectoryPath);
-        if (outputDirectory.exists()) {
+        if (append) {
+            if (outputDirectory.exists() && !SegmentManifest.exists(outputDirectoryPath) && outputDirectory.list().length > 0) {
+                System.out.println("Error: the directory " + outputDirectoryPath + " is not an index built with --append");
+                System.exit(1);
+            }
+        } else if (outputDirectory.exists()) {
             System.out.println("Error: the directory " + outputDirectoryPath + " already exists");
             System.exit(1);
         }
         outputDirectory.mkdir();
 
+        Metrics.every(new ProgressReport());
+        if (metricsPath != null) {
+            Metrics.writeEvery(metricsPath);
+        }
+
         try {
-            FileInputStream fileInputStream = new FileInputStream(inputFilePath);
-            GZIPInputStream gzipInputStream = new GZIPInputStream(fileInputStream);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(gzipInputStream));
+            if (append) {
+                appendSegment(inputFiles, outputDirectoryPath, memoryBudget, threadCount, readerCount, positional, impacts);
+            } else if (shardCount > 1) {
+                writeShards(inputFiles, outputDirectoryPath, shardCount, partition, memoryBudget, threadCount, readerCount, positional, impacts);
+            } else {
+                writeIndex(inputFiles, outputDirectoryPath, memoryBudget, threadCount, readerCount, positional);
+                if (impacts) {
+                    writeImpacts(List.of(outputDirectoryPath));
+                }
+            }
+            if (metricsPath != null) {
+                Metrics.write(metricsPath);
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        } catch (ExecutionException e) {
+            System.out.println("Error: " + e.getCause().getMessage());
+            System.exit(1);
+        }
+    }
 
-            File docnosFile = new File(outputDirectoryPath, "docnos.txt");
-            BufferedWriter docnosWriter = new BufferedWriter(new FileWriter(docnosFile));
+    private static int writeIndex(List<File> inputFiles, String outputDirectoryPath, long memoryBudget, int threadCount, int readerCount, boolean positional) throws IOException, InterruptedException, ExecutionException {
+        return writeIndex(inputFiles, new String[] {outputDirectoryPath}, Partition.RANGE, memoryBudget, threadCount, readerCount, positional);
+    }
 
-            File docLengthsFile = new File(outputDirectoryPath, "doc-lengths.txt");
-            BufferedWriter docLengthsWriter = new BufferedWriter(new FileWriter(docLengthsFile));
+    private static int writeIndex(List<File> inputFiles, String[] outputDirectoryPaths, Partition partition, long memoryBudget, int threadCount, int readerCount, boolean positional) throws IOException, InterruptedException, ExecutionException {
+        // ranges of docids need the number of documents before the first one is written
+        int documentCount = 0;
+        if (outputDirectoryPaths.length > 1 && partition == Partition.RANGE) {
+            DocumentSource counter = new InputFiles(inputFiles, readerCount, false);
+            while (counter.nextDocument() != null) {
+                documentCount++;
+            }
+            counter.close();
+        }
 
-            File lexiconFile = new File(outputDirectoryPath, "lexicon.txt");
-            BufferedWriter lexiconWriter = new BufferedWriter(new FileWriter(lexiconFile));
-            Map<String, Integer> lexicon = new HashMap<>();
+        long startTime = System.nanoTime();
+        DocumentSource source = new InputFiles(inputFiles, readerCount, true);
+        documentCount = writeIndex(source, outputDirectoryPaths, partition, documentCount, memoryBudget, threadCount, positional);
+        source.close();
+        double seconds = (System.nanoTime() - startTime) / Math.pow(10, 9);
+        System.out.println(String.format("Indexed %d documents from %d files in %.2f seconds (%.0f documents/s)",
+            documentCount, inputFiles.size(), seconds, documentCount / seconds));
+        return documentCount;
+    }
 
-            File invertedIndex = new File(outputDirectoryPath, "inverted-index");
-            invertedIndex.mkdir();
+    // writes each shard as a complete index in its own subdirectory, listed in shards.txt for SegmentedIndex
+    private static void writeShards(List<File> inputFiles, String outputDirectoryPath, int shardCount, Partition partition, long memoryBudget, int threadCount, int readerCount, boolean positional, boolean impacts) throws IOException, InterruptedException, ExecutionException {
+        String[] names = new String[shardCount];
+        String[] shardDirectoryPaths = new String[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            names[i] = "shard-" + (i + 1);
+            File shardDirectory = new File(outputDirectoryPath, names[i]);
+            shardDirectory.mkdir();
+            shardDirectoryPaths[i] = shardDirectory.getPath();
+        }
+        writeIndex(inputFiles, shardDirectoryPaths, partition, memoryBudget, threadCount, readerCount, positional);
+        if (impacts) {
+            writeImpacts(Arrays.asList(shardDirectoryPaths));
+        }
 
-            String line;
-            boolean inDocument = false;
-            StringBuilder document = new StringBuilder();
-            int id = 1;
+        BufferedWriter shardsWriter = new BufferedWriter(new FileWriter(new File(outputDirectoryPath, SegmentedIndex.SHARDS_FILE)));
+        for (String name : names) {
+            shardsWriter.write(name);
+            shardsWriter.newLine();
+        }
+        shardsWriter.close();
+    }
 
-            while ((line = reader.readLine()) != null) {
-                if (line.contains("<DOC>")) {
-                    inDocument = true;
-                    document = new StringBuilder();
-                } 
+    // writes the impacts of an index, or of the shards of one, for score-at-a-time search (see ImpactIndex)
+    static void writeImpacts(List<String> directories) throws IOException {
+        long startTime = System.nanoTime();
+        ImpactIndex.write(directories);
+        System.out.println(String.format("Wrote impacts in %.2f seconds", (System.nanoTime() - startTime) / Math.pow(10, 9)));
+    }
 
-                if (inDocument) {
-                    document.append(line).append("\n");
-                }
+    // writes a complete index of the documents to the directory and returns how many there were
+    static int writeIndex(DocumentSource source, String outputDirectoryPath, long memoryBudget, int threadCount, boolean positional) throws IOException, InterruptedException, ExecutionException {
+        return writeIndex(source, new String[] {outputDirectoryPath}, Partition.RANGE, 0, memoryBudget, threadCount, positional);
+    }
 
-                if (line.contains("</DOC>")) {
-                    inDocument = false;
-                    String stringDocument = document.toString();
-                    String docNo = extractDocNo(stringDocument);
-                    int[] tokens = tokenizeDocument(stringDocument, lexicon, lexiconWriter);
-                    
-                    docnosWriter.write(docNo);
-                    docnosWriter.newLine(); 
-                    docnosWriter.flush();
-
-                    docLengthsWriter.write(String.valueOf(tokens.length));
-                    docLengthsWriter.newLine(); 
-                    docLengthsWriter.flush();
-
-                    updateInvertedIndex(id, tokens, invertedIndex);
-
-                    File directory = new File(outputDirectoryPath, HelperFunctions.getDirectoryPath(docNo));
-                    File metadataDirectory = new File(directory, "metadata");
-                    if (!directory.exists()) {
-                        directory.mkdirs();
-                        metadataDirectory.mkdir();
-                    }
-                    saveDocument(stringDocument, docNo, directory);
-                    saveMetadata(id, docNo, extractHeadline(stringDocument), extractDate(docNo), metadataDirectory);
-                    
-                    id++;
-                }
+    // Writes the documents as one complete index per directory, sending each document to the shard the partition
+    // gives it, and returns how many there were. Termids are assigned once for all shards, and every shard gets
+    // the whole lexicon, so a query has the same termids, and its terms are scored in the same order, in every
+    // shard as in an unsharded index. For RANGE, documentCount is the number of documents in the source.
+    private static int writeIndex(DocumentSource source, String[] outputDirectoryPaths, Partition partition, int documentCount, long memoryBudget, int threadCount, boolean positional) throws IOException, InterruptedException, ExecutionException {
+        File lexiconFile = new File(outputDirectoryPaths[0], "lexicon.txt");
+        BufferedWriter lexiconWriter = new BufferedWriter(new FileWriter(lexiconFile));
+        Map<String, Integer> lexicon = new HashMap<>();
+
+        ShardWriter[] shards = new ShardWriter[outputDirectoryPaths.length];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new ShardWriter(outputDirectoryPaths[i], memoryBudget / shards.length, positional);
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(threadCount);
+        ExecutorService readerThread = Executors.newSingleThreadExecutor();
+        BlockingQueue<Future<ParsedDocument>> parsedDocuments = new ArrayBlockingQueue<>(threadCount * 64);
+        Future<?> readerTask = readerThread.submit(() -> {
+            readDocuments(source, workers, parsedDocuments, positional);
+            return null;
+        });
+
+        int count = 0;
+        ParsedDocument parsedDocument;
+        while ((parsedDocument = parsedDocuments.take().get()) != null) {
+            String[] terms = parsedDocument.getTerms();
+            int[] termIds = new int[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                termIds[i] = getTermId(terms[i], lexicon, lexiconWriter);
             }
+            Metrics.LEXICON_TERMS.set(lexicon.size());
 
-            fileInputStream.close();
-            gzipInputStream.close();
-            reader.close();
-            docnosWriter.close();
-            docLengthsWriter.close();
-            lexiconWriter.close();
-        } catch (IOException e) {
-            System.out.println("Error: " + e.getMessage());
-            System.exit(1);
+            int shard = 0;
+            if (shards.length > 1) {
+                shard = partition == Partition.HASH
+                    ? Math.floorMod(parsedDocument.getDocNo().hashCode(), shards.length)
+                    : (int) Math.min((long) count * shards.length / Math.max(1, documentCount), shards.length - 1);
+            }
+            shards[shard].add(parsedDocument, termIds);
+            count++;
+            Metrics.DOCUMENTS_INDEXED.increment();
         }
+        readerTask.get();
+        readerThread.shutdown();
+        workers.shutdown();
+
+        lexiconWriter.close();
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].close(lexicon);
+            if (i > 0) {
+                Files.copy(lexiconFile.toPath(), new File(outputDirectoryPaths[i], "lexicon.txt").toPath());
+            }
+        }
+        return count;
     }
 
-    private static String extractDocNo(String document) {
-        return document.substring(document.indexOf("<DOCNO>") + 7, document.indexOf("</DOCNO>")).trim();
+    private static void readDocuments(DocumentSource source, ExecutorService workers, BlockingQueue<Future<ParsedDocument>> parsedDocuments, boolean positional) throws IOException, InterruptedException {
+        try {
+            String document;
+            while ((document = source.nextDocument()) != null) {
+                String stringDocument = document;
+                parsedDocuments.put(workers.submit(() -> {
+                    long startTime = System.nanoTime();
+                    ParsedDocument parsedDocument = TrecDocumentParser.parse(stringDocument, positional);
+                    Metrics.PARSE.recordSince(startTime);
+                    return parsedDocument;
+                }));
+            }
+        } finally {
+            parsedDocuments.put(CompletableFuture.completedFuture(null));
+        }
     }
 
-    private static String extractDate(String docNo) {
-        String dateString = docNo.substring(2, 4) + "/" + docNo.substring(4, 6) + "/19" + docNo.substring(6, 8);
-        DateTimeFormatter originalFormat = DateTimeFormatter.ofPattern("MM/dd/yyyy");
-        LocalDate date = LocalDate.parse(dateString, originalFormat);
-        DateTimeFormatter desiredFormat = DateTimeFormatter.ofPattern("MMMM d, yyyy");
-        return date.format(desiredFormat);
-    }
+    // Indexes the input as a new segment of the directory and makes it live, then merges segments as MergePolicy
+    // asks. Merges of the existing segments run in the background while the new one is written; the new segment
+    // becomes searchable as soon as it is committed, without waiting for them.
+    private static void appendSegment(List<File> inputFiles, String directoryPath, long memoryBudget, int threadCount, int readerCount, boolean positional, boolean impacts) throws IOException, InterruptedException, ExecutionException {
+        ExecutorService mergeThread = Executors.newSingleThreadExecutor();
+        Future<?> merges = mergeThread.submit(() -> {
+            mergeSegments(directoryPath);
+            return null;
+        });
 
-    private static String extractHeadline(String document) {
-        int start = document.indexOf("<HEADLINE>");
-        if (start == -1) return "";
-        start = document.indexOf("<P>", start);
-        if (start == -1) return "";
-        start += 3;
-        int end = document.indexOf("</P>", start);
-        if (end == -1) return "";
-        String headline = document.substring(start, end).trim();
-        headline = headline.replaceAll("\\n", " ");
-        return headline;
-    }
+        try {
+            String name;
+            Closeable lock = SegmentManifest.lock(directoryPath);
+            try {
+                SegmentManifest manifest = SegmentManifest.load(directoryPath);
+                name = manifest.newSegmentName();
+                manifest.save(directoryPath);
+            } finally {
+                lock.close();
+            }
+            File segmentDirectory = new File(directoryPath, name);
+            segmentDirectory.mkdir();
+            int documentCount = 0;
+            boolean written = false;
+            try {
+                documentCount = writeIndex(inputFiles, segmentDirectory.getPath(), memoryBudget, threadCount, readerCount, positional);
+                if (impacts) {
+                    writeImpacts(List.of(segmentDirectory.getPath()));
+                }
+                written = true;
+            } finally {
+                // a reserved name is never reused, so a failed segment only leaves its directory to remove
+                if (!written) {
+                    deleteDirectory(segmentDirectory);
+                }
+            }
+            lock = SegmentManifest.lock(directoryPath);
+            try {
+                SegmentManifest manifest = SegmentManifest.load(directoryPath);
+                manifest.add(name, documentCount);
+                manifest.save(directoryPath);
+            } finally {
+                lock.close();
+            }
+            System.out.println("Added " + name + " (" + documentCount + " documents)");
+            merges.get();
+        } finally {
+            mergeThread.shutdown();
+        }
 
-    private static int[] tokenizeDocument(String document, Map<String, Integer> lexicon, BufferedWriter lexiconWriter) throws IOException {
-        String[] tags = {"HEADLINE", "TEXT", "GRAPHIC"};
-        String text = "";
+        // the new segment may complete a level
+        mergeSegments(directoryPath);
+    }
 
-        for (String tag : tags) { 
-            String pattern = "<" + tag + ">.*?</" + tag + ">";
-            Pattern regex = Pattern.compile(pattern, Pattern.DOTALL);
-            Matcher matcher = regex.matcher(document);
+    // Runs the merges MergePolicy calls for until none is due. A merge combines the files of its segments into a
+    // new segment (see SegmentMerger), which then takes their place in the manifest; the old segments are deleted
+    // after that, and searchers that still have them open keep reading them until they reopen.
+    private static void mergeSegments(String directoryPath) throws IOException {
+        while (true) {
+            List<String> merged;
+            String name;
+            Closeable lock = SegmentManifest.lock(directoryPath);
+            try {
+                SegmentManifest manifest = SegmentManifest.load(directoryPath);
+                merged = MergePolicy.findMerge(manifest);
+                if (merged == null) {
+                    return;
+                }
+                name = manifest.newSegmentName();
+                manifest.save(directoryPath);
+            } finally {
+                lock.close();
+            }
 
-            while (matcher.find()) {
-                String section = matcher.group();
-                section = section.replaceAll("<.*?>", " ");
-                text += section + " ";
+            List<String> directories = new ArrayList<>();
+            boolean impacts = true;
+            for (String segment : merged) {
+                String segmentDirectoryPath = new File(directoryPath, segment).getPath();
+                directories.add(segmentDirectoryPath);
+                impacts &= ImpactIndex.exists(segmentDirectoryPath);
+            }
+            File segmentDirectory = new File(directoryPath, name);
+            segmentDirectory.mkdir();
+            int documentCount = 0;
+            boolean written = false;
+            try {
+                documentCount = SegmentMerger.merge(directories, segmentDirectory.getPath());
+                if (impacts) {
+                    writeImpacts(List.of(segmentDirectory.getPath()));
+                }
+                written = true;
+            } finally {
+                if (!written) {
+                    deleteDirectory(segmentDirectory);
+                }
             }
-        }
-        text = text.trim().toLowerCase();
 
-        String[] tokens = HelperFunctions.tokenizeText(text);
-        //String[] tokens = HelperFunctions.tokenizeTextWithPorterStemmer(text);
-        int[] tokenIds = new int[tokens.length];
-        
-        for (int i = 0; i < tokens.length; i++) {
-            String token = tokens[i];
-            
-            if (lexicon.containsKey(token)) {
-                tokenIds[i] = lexicon.get(token);
+            boolean committed;
+            lock = SegmentManifest.lock(directoryPath);
+            try {
+                SegmentManifest manifest = SegmentManifest.load(directoryPath);
+                committed = manifest.replace(merged, name, documentCount);
+                if (committed) {
+                    manifest.save(directoryPath);
+                }
+            } finally {
+                lock.close();
+            }
+            if (committed) {
+                for (String directory : directories) {
+                    deleteDirectory(new File(directory));
+                }
+                System.out.println("Merged " + String.join(", ", merged) + " into " + name + " (" + documentCount + " documents)");
             } else {
-                int tokenId = lexicon.size() + 1;
-                lexicon.put(token, tokenId);
-
-                lexiconWriter.write(token);
-                lexiconWriter.newLine();
-                lexiconWriter.flush();
+                // another process merged some of the same segments first
+                deleteDirectory(segmentDirectory);
+            }
+        }
+    }
 
-                tokenIds[i] = tokenId;
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
             }
         }
+        directory.delete();
+    }
 
-        return tokenIds;
+    // prints the rate of indexing since the last report, every Metrics.DUMP_INTERVAL seconds while indexing runs
+    private static class ProgressReport implements Runnable {
+        private long documents = 0;
+        private long bytes = 0;
+        private long time = System.nanoTime();
+
+        @Override
+        public void run() {
+            long documents = Metrics.DOCUMENTS_INDEXED.sum();
+            long bytes = Metrics.INPUT_BYTES.sum();
+            long time = System.nanoTime();
+            double seconds = (time - this.time) / Math.pow(10, 9);
+            System.out.println(String.format("Indexing: %d documents (%.0f documents/s, %.1f MB/s), %d terms, %d flushes (%.2f seconds p99)",
+                documents, (documents - this.documents) / seconds, (bytes - this.bytes) / seconds / (1 << 20),
+                Metrics.LEXICON_TERMS.get(), Metrics.FLUSH.getCount(), Metrics.FLUSH.getQuantile(0.99) / Math.pow(10, 9)));
+            this.documents = documents;
+            this.bytes = bytes;
+            this.time = time;
+        }
     }
 
-    private static void updateInvertedIndex(int id, int[] tokens, File directory) throws IOException { 
-        HashMap<Integer, Integer> tokenCounts = new HashMap<>();
-        for (int token : tokens) {
-            tokenCounts.put(token, tokenCounts.getOrDefault(token, 0) + 1);
+    // how --shards assigns documents to shards: contiguous ranges of docids, or the hash of the docno
+    private enum Partition { RANGE, HASH }
+
+    // the files of one index directory that documents are added to in docid order
+    private static class ShardWriter {
+        private String directory;
+        private BufferedWriter docnosWriter;
+        private BufferedWriter docLengthsWriter;
+        private PostingsWriter postingsWriter;
+        private DocumentStoreWriter documentStoreWriter;
+        private SentenceStoreWriter sentenceStoreWriter;
+        private ForwardIndexWriter forwardIndexWriter;
+        private int id = 1;
+        private long totalLength = 0;
+
+        public ShardWriter(String directory, long memoryBudget, boolean positional) throws IOException {
+            this.directory = directory;
+            File outputDirectory = new File(directory);
+            docnosWriter = new BufferedWriter(new FileWriter(new File(directory, "docnos.txt")));
+            docLengthsWriter = new BufferedWriter(new FileWriter(new File(directory, "doc-lengths.txt")));
+            postingsWriter = new PostingsWriter(outputDirectory, memoryBudget, positional);
+            documentStoreWriter = new DocumentStoreWriter(outputDirectory);
+            sentenceStoreWriter = new SentenceStoreWriter(outputDirectory);
+            forwardIndexWriter = new ForwardIndexWriter(outputDirectory);
         }
 
-        for (Map.Entry<Integer, Integer> entry : tokenCounts.entrySet()) {
-            int token = entry.getKey();
-            int count = entry.getValue();
-            
-            File outputFile = new File(directory, token + ".txt");
-            BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile, true));
-            writer.write(String.valueOf(id));
-            writer.newLine();
-            writer.write(String.valueOf(count));
-            writer.newLine();
-            writer.close();
+        public void add(ParsedDocument parsedDocument, int[] termIds) throws IOException {
+            docnosWriter.write(parsedDocument.getDocNo());
+            docnosWriter.newLine();
+
+            docLengthsWriter.write(String.valueOf(parsedDocument.getLength()));
+            docLengthsWriter.newLine();
+            totalLength += parsedDocument.getLength();
+
+            updateInvertedIndex(id, termIds, parsedDocument.getCounts(), parsedDocument.getPositions(), parsedDocument.getLength(), postingsWriter);
+            documentStoreWriter.add(parsedDocument.getText(), parsedDocument.getHeadline(), parsedDocument.getDate());
+            sentenceStoreWriter.add(parsedDocument.getSentences(), parsedDocument.getTokenTerms(), termIds);
+            forwardIndexWriter.add(termIds, parsedDocument.getCounts());
+
+            id++;
         }
-    }
 
-    private static void saveDocument(String document, String docNo, File directory) throws IOException { 
-        File outputFile = new File(directory, docNo + ".txt");
-        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
-        writer.write(document);
-        writer.close();
+        public void close(Map<String, Integer> lexicon) throws IOException {
+            docnosWriter.close();
+            docLengthsWriter.close();
+            Lexicon.write(directory, lexicon);
+            postingsWriter.close(lexicon.size());
+            documentStoreWriter.close();
+            sentenceStoreWriter.close();
+            forwardIndexWriter.close();
+            new CollectionStatistics(id - 1, totalLength).save(directory);
+        }
     }
 
-    private static void saveMetadata(int id, String docNo, String headline, String date, File directory) throws IOException { 
-        File metadataFile = new File(directory, docNo + ".metadata.json");
-        BufferedWriter writer = new BufferedWriter(new FileWriter(metadataFile));
+    private static int getTermId(String term, Map<String, Integer> lexicon, BufferedWriter lexiconWriter) throws IOException {
+        Integer termId = lexicon.get(term);
+        if (termId == null) {
+            termId = lexicon.size() + 1;
+            lexicon.put(term, termId);
 
-        String metadata = "{\n" +
-        "  \"id\": " + id + ",\n" +
-        "  \"docNo\": \"" + docNo + "\",\n" +
-        "  \"headline\": \"" + headline + "\",\n" +
-        "  \"date\": \"" + date + "\"\n" +
-        "}";
+            lexiconWriter.write(term);
+            lexiconWriter.newLine();
+        }
+        return termId;
+    }
 
-        writer.write(metadata);
-        writer.close();
+    private static void updateInvertedIndex(int id, int[] termIds, int[] counts, int[] positions, int length, PostingsWriter postingsWriter) throws IOException {
+        postingsWriter.addDocument(id, length);
+        int from = 0;
+        for (int i = 0; i < termIds.length; i++) {
+            if (positions == null) {
+                postingsWriter.addPosting(termIds[i], id, counts[i]);
+            } else {
+                postingsWriter.addPosting(termIds[i], id, counts[i], positions, from);
+                from += counts[i];
+            }
+        }
     }
 }
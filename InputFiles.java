@@ -0,0 +1,173 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.GZIPInputStream;
+
+// The documents of one or more TREC files, gzip-compressed or plain, read as one source in file order. Up to
+// threadCount files are decompressed and split into documents at once, each by its own thread into a bounded
+// queue that nextDocument drains in order, so decompression runs ahead on spare cores instead of being the
+// single-threaded head of the indexing pipeline.
+public class InputFiles implements DocumentSource {
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final int INFLATE_BUFFER_SIZE = 1 << 16;
+    private static final int QUEUE_SIZE = 256;
+    // marks the end of a file's documents; compared by identity
+    private static final String END_OF_FILE = new String();
+
+    private ExecutorService readers;
+    private List<BlockingQueue<String>> queues = new ArrayList<>();
+    private List<Future<?>> tasks = new ArrayList<>();
+    private int file = 0;
+
+    // files are started in order, and a reader blocks only on its own full queue while nextDocument drains an
+    // earlier file, which has already started, so the files in flight never wait on each other
+    public InputFiles(List<File> files, int threadCount, boolean reportProgress) {
+        readers = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, files.size())));
+        for (File input : files) {
+            BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+            queues.add(queue);
+            tasks.add(readers.submit(() -> {
+                try {
+                    read(input, queue, reportProgress);
+                    queue.put(END_OF_FILE);
+                } catch (Exception e) {
+                    // nextDocument reports the failure from the task once it reaches the end of the file; the
+                    // documents it has not taken yet are dropped so the end always fits
+                    queue.clear();
+                    queue.put(END_OF_FILE);
+                    throw e;
+                }
+                return null;
+            }));
+        }
+    }
+
+    // a file, every file in a directory, or the files matching a glob in the last part of the path (e.g.
+    // data/la*.gz), in name order
+    public static List<File> resolve(String path) throws IOException {
+        File input = new File(path);
+        List<File> files = new ArrayList<>();
+        if (input.isFile()) {
+            files.add(input);
+        } else if (input.isDirectory()) {
+            for (File file : input.listFiles()) {
+                if (file.isFile() && !file.getName().startsWith(".")) {
+                    files.add(file);
+                }
+            }
+        } else if (input.getParentFile() == null || input.getParentFile().isDirectory()) {
+            Path directory = input.getParentFile() == null ? Paths.get(".") : input.getParentFile().toPath();
+            try (DirectoryStream<Path> matches = Files.newDirectoryStream(directory, input.getName())) {
+                for (Path match : matches) {
+                    if (Files.isRegularFile(match)) {
+                        files.add(match.toFile());
+                    }
+                }
+            } catch (PatternSyntaxException e) {
+                throw new IOException("invalid pattern " + path);
+            }
+        }
+        if (files.isEmpty()) {
+            throw new FileNotFoundException(path + " (no input files)");
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    // gzip input is recognised by its magic number rather than its name
+    public static Reader open(File file) throws IOException {
+        return open(new FileInputStream(file));
+    }
+
+    private static Reader open(InputStream file) throws IOException {
+        InputStream in = new BufferedInputStream(file, READ_BUFFER_SIZE);
+        in.mark(2);
+        boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+        in.reset();
+        if (gzip) {
+            in = new GZIPInputStream(in, INFLATE_BUFFER_SIZE);
+        }
+        return new InputStreamReader(in);
+    }
+
+    private static void read(File file, BlockingQueue<String> queue, boolean reportProgress) throws IOException, InterruptedException {
+        long startTime = System.nanoTime();
+        int documentCount = 0;
+        // the bytes of the files being indexed, not those of a pass that only counts their documents, are metered
+        InputStream in = reportProgress ? new CountingInputStream(new FileInputStream(file)) : new FileInputStream(file);
+        try (TrecDocumentParser parser = new TrecDocumentParser(open(in))) {
+            String document;
+            while ((document = parser.nextDocument()) != null) {
+                queue.put(document);
+                documentCount++;
+            }
+        }
+        if (reportProgress) {
+            double seconds = Math.max(1e-9, (System.nanoTime() - startTime) / Math.pow(10, 9));
+            double megabytes = file.length() / (double) (1 << 20);
+            System.out.println(String.format("Read %s: %d documents, %.1f MB in %.2f seconds (%.1f MB/s, %.0f documents/s)",
+                file.getPath(), documentCount, megabytes, seconds, megabytes / seconds, documentCount / seconds));
+        }
+    }
+
+    @Override
+    public String nextDocument() throws IOException {
+        while (file < queues.size()) {
+            String document;
+            try {
+                document = queues.get(file).take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (document != END_OF_FILE) {
+                return document;
+            }
+            try {
+                tasks.get(file).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            queues.set(file, null);
+            file++;
+        }
+        return null;
+    }
+
+    // stops the readers of files that were not read to the end
+    @Override
+    public void close() {
+        readers.shutdownNow();
+    }
+
+    // adds the bytes read through it to Metrics.INPUT_BYTES
+    private static class CountingInputStream extends FilterInputStream {
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                Metrics.INPUT_BYTES.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = in.read(b, off, len);
+            if (count > 0) {
+                Metrics.INPUT_BYTES.add(count);
+            }
+            return count;
+        }
+    }
+}
@@ -1,16 +1,59 @@
 import java.io.*;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class InteractiveRetrieval {
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java InteractiveRetrieval.java <path_to_directory>");
+        List<String> paths = new ArrayList<>();
+        QueryEngine.Algorithm algorithm = QueryEngine.Algorithm.BMW;
+        boolean proximity = false;
+        int impactBudget = Integer.MAX_VALUE;
+        QueryExpansion.Method expansionMethod = null;
+        int feedbackDocuments = QueryExpansion.FEEDBACK_DOCUMENTS;
+        int feedbackTerms = QueryExpansion.FEEDBACK_TERMS;
+        double originalWeight = QueryExpansion.ORIGINAL_WEIGHT;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--algorithm") && i + 1 < args.length) {
+                try {
+                    algorithm = QueryEngine.Algorithm.valueOf(args[++i].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    paths.clear();
+                    break;
+                }
+            } else if (args[i].equals("--budget") && i + 1 < args.length) {
+                try {
+                    impactBudget = Math.max(1, Integer.parseInt(args[++i]));
+                } catch (NumberFormatException e) {
+                    paths.clear();
+                    break;
+                }
+            } else if (args[i].equals("--proximity")) {
+                proximity = true;
+            } else if (args[i].matches("--expansion|--feedback-docs|--feedback-terms|--original-weight") && i + 1 < args.length) {
+                try {
+                    if (args[i].equals("--expansion")) {
+                        expansionMethod = QueryExpansion.Method.valueOf(args[++i].toUpperCase());
+                    } else if (args[i].equals("--feedback-docs")) {
+                        feedbackDocuments = Math.max(1, Integer.parseInt(args[++i]));
+                    } else if (args[i].equals("--feedback-terms")) {
+                        feedbackTerms = Math.max(0, Integer.parseInt(args[++i]));
+                    } else {
+                        originalWeight = Math.max(0, Math.min(1, Double.parseDouble(args[++i])));
+                    }
+                } catch (IllegalArgumentException e) {
+                    paths.clear();
+                    break;
+                }
+            } else {
+                paths.add(args[i]);
+            }
+        }
+
+        if (paths.size() != 1) {
+            System.out.println("Usage: java InteractiveRetrieval.java [--algorithm <exhaustive|wand|bmw|saat>] [--budget <postings>] [--proximity] [--expansion <rm3|rocchio> [--feedback-docs <count>] [--feedback-terms <count>] [--original-weight <weight>]] <path_to_directory>");
             System.exit(1);
         }
 
-        String directoryPath = args[0];
+        String directoryPath = paths.get(0);
         File directory = new File(directoryPath);
         if (!directory.exists() || !directory.isDirectory()) {
             System.out.println("Error: the directory " + directoryPath + " does not exist");
@@ -18,8 +61,21 @@ public class InteractiveRetrieval {
         }
 
         try { 
-            Document[] documents = HelperFunctions.loadDocuments(directoryPath);
-            HashMap<String, Integer> lexicon = HelperFunctions.loadLexicon(directoryPath);
+            SegmentedIndex index = new SegmentedIndex(directoryPath);
+            if (proximity && !index.hasPositions()) {
+                System.out.println("Error: --proximity needs an index built with --positions");
+                System.exit(1);
+            }
+            if (algorithm == QueryEngine.Algorithm.SAAT && !index.hasImpacts()) {
+                System.out.println("Error: --algorithm saat needs an index built with --impacts, in a single segment if built with --append");
+                System.exit(1);
+            }
+            if (expansionMethod != null && !index.hasForwardIndex()) {
+                System.out.println("Error: --expansion needs an index with a forward index, please re-index");
+                System.exit(1);
+            }
+            index.setImpactBudget(impactBudget);
+            QueryExpansion expansion = expansionMethod == null ? null : new QueryExpansion(expansionMethod, feedbackDocuments, feedbackTerms, originalWeight);
 
             Scanner scanner = new Scanner(System.in);
             while (true) {
@@ -29,41 +85,31 @@ public class InteractiveRetrieval {
 
                 double startTime = System.nanoTime();
 
-                String[] tokens = HelperFunctions.tokenizeText(query);
-                int[] tokenIds = HelperFunctions.convertTokensToIds(tokens, lexicon);
-                
-                if (tokenIds.length != 0) {
-                    HashMap<Integer, HashMap<Document, Integer>> invertedIndex = buildInvertedIndex(tokenIds, documents, directoryPath);
-                    HashMap<String, Double> docScore = new HashMap<>();
-                    for (HashMap.Entry<Integer, HashMap<Document, Integer>> invertedIndexEntry : invertedIndex.entrySet()) {
-                        HashMap<Document, Integer> docTF = invertedIndexEntry.getValue();
-                        int n = docTF.size();
-                        for (HashMap.Entry<Document, Integer> docTFEntry : docTF.entrySet()) {
-                            Document document = docTFEntry.getKey();
-                            int tf = docTFEntry.getValue();
-                            double K = 1.2*((1-0.75)+0.75*(document.getLength()/513.458907));
-                            double score = (tf/(K+tf))*Math.log((131896-n+0.5)/(n+0.5));
-                            docScore.merge(document.getDocno(), score, Double::sum);
+                if (index.hasTerms(query)) {
+                    Result[] topResults;
+                    try {
+                        String searched = query;
+                        if (expansion != null) {
+                            searched = index.expand(query, expansion, algorithm);
+                            System.out.println("Expanded query: " + searched);
+                            System.out.println();
                         }
+                        topResults = index.search(searched, 10, algorithm, proximity);
+                    } catch (IllegalStateException e) {
+                        // the index cannot answer the query as asked: a phrase without positions, expansion without a
+                        // forward index, or score-at-a-time search without impacts
+                        System.out.println("Error: " + e.getMessage() + ", please try again");
+                        System.out.println();
+                        continue;
                     }
 
-                    PriorityQueue<Result> pq = new PriorityQueue<>();
-                    for (HashMap.Entry<String, Double> entry : docScore.entrySet()) {
-                        String docno = entry.getKey();
-                        double score = entry.getValue();
-                        pq.add(new Result(docno, score));
-                    }
-
-                    String[] results = new String[10];
-                    int rank = 1;
-                    while (!pq.isEmpty() && rank != 11) {
-                        Result result = pq.remove();
+                    int[] results = new int[10];
+                    for (int rank = 1; rank <= topResults.length; rank++) {
                         System.out.print(String.valueOf(rank) + ". ");
-                        String docno = result.getId();
-                        printResult(docno, tokenIds, lexicon, directoryPath);
+                        Result result = topResults[rank-1];
+                        printResult(result.getDocId(), result.getId(), query, index);
                         //printQueryBiasedSummary(docno, tokenIds, lexicon, directoryPath);
-                        results[rank-1] = docno;
-                        rank++;
+                        results[rank-1] = result.getDocId();
                     }
 
                     double endTime = System.nanoTime();
@@ -82,9 +128,8 @@ public class InteractiveRetrieval {
                         } else {
                             try {
                                 int documentRank = Integer.parseInt(input);
-                                if (documentRank >= 1 && documentRank <= 10) {
-                                    String docno = results[documentRank-1];
-                                    printDocument(docno, directoryPath);
+                                if (documentRank >= 1 && documentRank <= topResults.length) {
+                                    printDocument(results[documentRank-1], index);
                                 } else {
                                     System.out.println("Invalid input, please try again");
                                 }
@@ -102,95 +147,13 @@ public class InteractiveRetrieval {
 
     }
 
-    public static HashMap<Integer, HashMap<Document, Integer>> buildInvertedIndex(int[] tokenIds, Document[] documents, String directory) throws IOException { 
-        HashMap<Integer, HashMap<Document, Integer>> invertedIndex = new HashMap<>();
-
-        for (int i = 0; i < tokenIds.length; i++) { 
-            File file = new File(directory, "inverted-index/" + String.valueOf(tokenIds[i]) + ".txt");
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-
-            HashMap<Document, Integer> termFrequencies = new HashMap<>();
-            String id = "";
-            String tf = "";
-            while ((id = reader.readLine()) != null && (tf = reader.readLine()) != null) { 
-                termFrequencies.put(documents[Integer.parseInt(id)-1], Integer.parseInt(tf));
-            }
-            invertedIndex.put(tokenIds[i], termFrequencies);
-
-            reader.close();
-        }
-
-        return invertedIndex;
-    }
-
-    public static void printResult(String docno, int[] queryTokenIds, HashMap<String, Integer> lexicon, String directory) throws IOException { 
-        File metadata = new File(directory + "/" + HelperFunctions.getDirectoryPath(docno) + "/metadata", docno + ".metadata.json");
-        BufferedReader metadataReader = new BufferedReader(new FileReader(metadata));
-        String metadataLine;
-        String date = "";
-        String headline = "";
-        while ((metadataLine = metadataReader.readLine()) != null) {
-            if (metadataLine.contains("\"date\":")) {
-                date = metadataLine.substring(metadataLine.indexOf(":") + 3, metadataLine.lastIndexOf("\""));
-            } else if (metadataLine.contains("\"headline\":")) {
-                headline = metadataLine.substring(metadataLine.indexOf(":") + 3, metadataLine.lastIndexOf("\""));
-            }
-        }
-        metadataReader.close();
-
-
-        File file = new File(directory + "/" + HelperFunctions.getDirectoryPath(docno), docno + ".txt");
-        BufferedReader reader = new BufferedReader(new FileReader(file));
-        String line;
-        StringBuilder document = new StringBuilder();
-        while ((line = reader.readLine()) != null) {
-            document.append(line).append("\n");
-        }
-        reader.close();
-        String stringDocument = document.toString().replaceAll("\\s+", " ");
-
-        PriorityQueue<Result> pq = new PriorityQueue<>();
-        String[] tags = {"HEADLINE", "TEXT", "GRAPHIC"};
-        Pattern sentencePattern = Pattern.compile("[^.!?]+[.!?]");
-        int l_score = 3;
-        for (String tag : tags) { 
-            Pattern pattern = Pattern.compile("<" + tag + ">.*?</" + tag + ">", Pattern.DOTALL);
-            Matcher matcher = pattern.matcher(stringDocument);
-            while (matcher.find()) {
-                String section = matcher.group();
-                section = section.replaceAll("<.*?>", " ");
-                Matcher sentenceMatcher = sentencePattern.matcher(section);
-                while (sentenceMatcher.find()) {
-                    String sentence = sentenceMatcher.group().trim();
-                    if (sentence.split(" ").length >= 5) {
-                        String[] tokens = HelperFunctions.tokenizeText(sentence);
-                        int[] tokenIds = HelperFunctions.convertTokensToIds(tokens, lexicon);
-
-                        int h_score = 0;
-                        if (tag.equals("HEADLINE")) { 
-                            h_score++;
-                        }
-                        if (tag.equals("TEXT") && l_score > 0) { 
-                            l_score--;
-                        }
-
-                        double score = calculateSentenceScore(tokenIds, queryTokenIds, h_score, l_score);
-                        pq.add(new Result(sentence, score));
-                    }
-                }
-            }
-        }
-
-        String summary = "";
-        int it = 1;
-        while (!pq.isEmpty() && it < 3) {
-            Result result = pq.remove();
-            summary += (result.getId() + " ");
-            it++;
-        }
+    public static void printResult(int docId, String docno, String query, SegmentedIndex index) throws IOException { 
+        String date = index.getDate(docId);
+        String headline = index.getHeadline(docId);
+        String summary = index.generateSnippet(docId, query);
 
         if (headline.isEmpty()) {
-            headline = summary.substring(0, 51) + "...";
+            headline = summary.substring(0, Math.min(51, summary.length())) + "...";
         }
 
 
@@ -202,48 +165,9 @@ public class InteractiveRetrieval {
         System.out.println();
     }
 
-    public static double calculateSentenceScore(int[] sentenceTokenIds, int[] queryTokenIds, int h_score, int l_score) {
-        int h = h_score;
-        int l = l_score;
-
-        int c = 0;
-        int d = 0;
-        int k = 0;
-        int currentContiguousRun = 0;
-        HashMap<Integer, Integer> tf = new HashMap<>();
-        for (int queryTokenId : queryTokenIds) {
-            tf.put(queryTokenId, 0);
-        }
-        for (int sentenceTokenId : sentenceTokenIds) {
-            if (tf.containsKey(sentenceTokenId)) {
-                c++;
-
-                if (tf.get(sentenceTokenId) == 0) { 
-                    d++;
-                }
-                tf.put(sentenceTokenId, 1);
-
-                currentContiguousRun++;
-                if (currentContiguousRun > k) {
-                    k = currentContiguousRun;
-                }
-            } else { 
-                currentContiguousRun = 0;
-            }
-        }
-
-        return h*1 + l*2 + c*1.5 + d*3 + k*2.5;
-    }
-
-    public static void printDocument(String docno, String directory) throws IOException { 
-        File document = new File(directory + "/" + HelperFunctions.getDirectoryPath(docno), docno + ".txt");
-        BufferedReader documentReader = new BufferedReader(new FileReader(document));
-        String documentLine;
+    public static void printDocument(int docId, SegmentedIndex index) throws IOException { 
         System.out.println();
-        while ((documentLine = documentReader.readLine()) != null) {
-            System.out.println(documentLine);
-        }
+        System.out.print(index.getDocument(docId));
         System.out.println();
-        documentReader.close();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,83 @@
+import java.io.*;
+
+public class InvertedIndex {
+    public static final String POSTINGS_FILE = "postings.bin";
+    public static final String OFFSETS_FILE = "postings-offsets.bin";
+    private static final int OFFSET_ENTRY_SIZE = 28;
+    // shorter lists decode quickly enough that caching them would only crowd out the long ones
+    public static final int MIN_CACHED_DOCUMENT_FREQUENCY = 8 * PostingsWriter.BLOCK_SIZE;
+
+    private MappedFile postings;
+    private MappedFile offsets;
+    private int termCount;
+    private LruCache<Integer, DecodedPostings> postingsCache;
+
+    public InvertedIndex(String directory) throws IOException {
+        postings = new MappedFile(new File(directory, POSTINGS_FILE));
+        offsets = new MappedFile(new File(directory, OFFSETS_FILE));
+        termCount = (int) (offsets.size() / OFFSET_ENTRY_SIZE);
+    }
+
+    public void setPostingsCache(LruCache<Integer, DecodedPostings> postingsCache) {
+        this.postingsCache = postingsCache;
+    }
+
+    public LruCache<Integer, DecodedPostings> getPostingsCache() {
+        return postingsCache;
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    public int getDocumentFrequency(int termId) {
+        return offsets.getInt(entry(termId) + 8);
+    }
+
+    public int getMaxTf(int termId) {
+        return offsets.getInt(entry(termId) + 12);
+    }
+
+    public int getMinDocLength(int termId) {
+        return offsets.getInt(entry(termId) + 16);
+    }
+
+    public long getCollectionFrequency(int termId) {
+        return offsets.getLong(entry(termId) + 20);
+    }
+
+    public PostingsIterator getPostings(int termId) {
+        return getPostings(termId, null);
+    }
+
+    // repositions an iterator previously returned by this index, so callers can reuse one per query term
+    public PostingsIterator getPostings(int termId, PostingsIterator postingsIterator) {
+        if (postingsIterator == null) {
+            postingsIterator = new PostingsIterator();
+        }
+        long entry = entry(termId);
+        int documentFrequency = offsets.getInt(entry + 8);
+        if (postingsCache != null && documentFrequency >= MIN_CACHED_DOCUMENT_FREQUENCY) {
+            DecodedPostings decoded = postingsCache.get(termId);
+            if (decoded == null) {
+                PostingsIterator encoded = reset(new PostingsIterator(), termId, entry, documentFrequency);
+                decoded = new DecodedPostings(encoded, documentFrequency);
+                postingsCache.put(termId, decoded, decoded.sizeInBytes());
+            }
+            postingsIterator.reset(decoded);
+            return postingsIterator;
+        }
+        return reset(postingsIterator, termId, entry, documentFrequency);
+    }
+
+    private PostingsIterator reset(PostingsIterator postingsIterator, int termId, long entry, int documentFrequency) {
+        long start = offsets.getLong(entry);
+        long end = termId < termCount ? offsets.getLong(entry + OFFSET_ENTRY_SIZE) : postings.size();
+        postingsIterator.reset(postings.slice(start, end), documentFrequency);
+        return postingsIterator;
+    }
+
+    private static long entry(int termId) {
+        return (long) (termId - 1) * OFFSET_ENTRY_SIZE;
+    }
+}
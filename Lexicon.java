@@ -0,0 +1,216 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Sorted, front-coded term dictionary that is memory-mapped and searched in place. Terms are sorted by their
+// UTF-8 bytes and grouped into blocks of BLOCK_SIZE; the first term of a block is stored whole and the rest
+// as (shared prefix length, suffix), each followed by its termid. A table of block offsets lets a lookup
+// binary search the first terms and then decode a single block. lexicon-ranks.bin gives each termid's place in the
+// sorted order (4 bytes per termid), so a termid's term is found by decoding its block.
+public class Lexicon {
+    public static final String LEXICON_FILE = "lexicon.bin";
+    public static final String RANKS_FILE = "lexicon-ranks.bin";
+    public static final int BLOCK_SIZE = 16;
+    private static final int HEADER_SIZE = 12;
+
+    private MappedFile buffer;
+    private MappedFile ranks;
+    private int termCount;
+    private int blockCount;
+    private int maxTermLength;
+    private long dataStart;
+
+    public Lexicon(String directory) throws IOException {
+        buffer = new MappedFile(new File(directory, LEXICON_FILE));
+        File ranksFile = new File(directory, RANKS_FILE);
+        if (ranksFile.exists()) {
+            ranks = new MappedFile(ranksFile);
+        }
+        termCount = buffer.getInt(0);
+        blockCount = buffer.getInt(4);
+        maxTermLength = buffer.getInt(8);
+        dataStart = HEADER_SIZE + blockCount * 4L;
+    }
+
+    public int size() {
+        return termCount;
+    }
+
+    // returns the termid of the term, or 0 if it is not in the lexicon
+    public int getTermId(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        if (key.length > maxTermLength || blockCount == 0) {
+            return 0;
+        }
+
+        // the last block whose first term is <= key is the only one that can hold it
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            long position = blockStart(middle);
+            int length = readVByte(position);
+            position += vByteLength(length);
+            if (compare(position, length, key) <= 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        // terms in the block are increasing and all smaller than the key until it is found, so only the length of
+        // the prefix each one shares with the key (matched) is tracked: an entry sharing more with its predecessor
+        // than the predecessor shared with the key is still smaller, and one sharing less is already larger
+        long position = blockStart(low);
+        int entries = Math.min(BLOCK_SIZE, termCount - low * BLOCK_SIZE);
+        int matched = 0;
+        for (int i = 0; i < entries; i++) {
+            int prefix = 0;
+            if (i > 0) {
+                prefix = readVByte(position);
+                position += vByteLength(prefix);
+            }
+            int suffix = readVByte(position);
+            position += vByteLength(suffix);
+            long suffixStart = position;
+            position += suffix;
+            int termId = readVByte(position);
+            position += vByteLength(termId);
+
+            if (prefix < matched) {
+                return 0;
+            } else if (prefix > matched) {
+                continue;
+            }
+            int length = prefix + suffix;
+            while (matched < length && matched < key.length && buffer.get(suffixStart + matched - prefix) == key[matched]) {
+                matched++;
+            }
+            if (matched == length && matched == key.length) {
+                return termId;
+            }
+            if (matched < length && (matched == key.length || (buffer.get(suffixStart + matched - prefix) & 0xFF) > (key[matched] & 0xFF))) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    // the term with the termid; throws IllegalStateException for an index written before lexicon-ranks.bin was
+    public String getTerm(int termId) {
+        if (ranks == null) {
+            throw new IllegalStateException("looking up terms by termid needs an index with " + RANKS_FILE + ", please re-index");
+        }
+        int rank = ranks.getInt((termId - 1) * 4L);
+        long position = blockStart(rank / BLOCK_SIZE);
+        byte[] term = new byte[maxTermLength];
+        int length = 0;
+        for (int i = 0; i <= rank % BLOCK_SIZE; i++) {
+            int prefix = 0;
+            if (i > 0) {
+                prefix = readVByte(position);
+                position += vByteLength(prefix);
+            }
+            int suffix = readVByte(position);
+            position += vByteLength(suffix);
+            for (int j = 0; j < suffix; j++) {
+                term[prefix + j] = buffer.get(position + j);
+            }
+            position += suffix;
+            position += vByteLength(readVByte(position));
+            length = prefix + suffix;
+        }
+        return new String(term, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // the lexicon is written from memory, so its block offsets, counted from the end of the table, fit in an int
+    private long blockStart(int block) {
+        return dataStart + buffer.getInt(HEADER_SIZE + block * 4L);
+    }
+
+    private int compare(long position, int length, byte[] key) {
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(position + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    private int readVByte(long position) {
+        int b = buffer.get(position++);
+        int value = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = buffer.get(position++);
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    private static int vByteLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    public static void write(String directory, Map<String, Integer> lexicon) throws IOException {
+        byte[][] terms = new byte[lexicon.size()][];
+        int[] termIds = new int[lexicon.size()];
+        Integer[] order = new Integer[lexicon.size()];
+        int i = 0;
+        int maxTermLength = 0;
+        for (Map.Entry<String, Integer> entry : lexicon.entrySet()) {
+            terms[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            termIds[i] = entry.getValue();
+            order[i] = i;
+            maxTermLength = Math.max(maxTermLength, terms[i].length);
+            i++;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(terms[a], terms[b]));
+
+        int blockCount = (terms.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] blockOffsets = new int[blockCount];
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] previous = new byte[0];
+        for (int rank = 0; rank < order.length; rank++) {
+            byte[] term = terms[order[rank]];
+            if (rank % BLOCK_SIZE == 0) {
+                blockOffsets[rank / BLOCK_SIZE] = data.size();
+                HelperFunctions.writeVByte(data, term.length);
+                data.write(term);
+            } else {
+                int prefix = Arrays.mismatch(previous, term);
+                HelperFunctions.writeVByte(data, prefix);
+                HelperFunctions.writeVByte(data, term.length - prefix);
+                data.write(term, prefix, term.length - prefix);
+            }
+            HelperFunctions.writeVByte(data, termIds[order[rank]]);
+            previous = term;
+        }
+
+        int[] ranks = new int[terms.length];
+        for (int rank = 0; rank < order.length; rank++) {
+            ranks[termIds[order[rank]] - 1] = rank;
+        }
+        try (DataOutputStream ranksOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, RANKS_FILE))))) {
+            for (int rank : ranks) {
+                ranksOut.writeInt(rank);
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, LEXICON_FILE))));
+        out.writeInt(terms.length);
+        out.writeInt(blockCount);
+        out.writeInt(maxTermLength);
+        for (int offset : blockOffsets) {
+            out.writeInt(offset);
+        }
+        data.writeTo(out);
+        out.close();
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.*;
+
+// Least-recently-used cache bounded by the estimated size of its entries in bytes rather than their count.
+// All methods synchronize on the cache, so one instance can be shared by every query thread.
+public class LruCache<K, V> {
+    private static final long ENTRY_OVERHEAD = 64;
+
+    private long maxBytes;
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public LruCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value, long size) {
+        size += ENTRY_OVERHEAD;
+        if (size > maxBytes) {
+            return;
+        }
+        Entry<V> previous = entries.put(key, new Entry<>(value, size));
+        if (previous != null) {
+            bytes -= previous.size;
+        }
+        bytes += size;
+
+        Iterator<Entry<V>> eldest = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().size;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private static class Entry<V> {
+        private V value;
+        private long size;
+
+        public Entry(V value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A read-only memory map of a whole index file, read at long offsets. One MappedByteBuffer reaches only
+// Integer.MAX_VALUE bytes, so the file is mapped as chunks of 1 GB, the last one shorter: the byte at an offset is at
+// offset & CHUNK_MASK in chunk offset >>> CHUNK_SHIFT. A value or record that runs from one chunk into the next is
+// copied out of both.
+public class MappedFile {
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private MappedByteBuffer[] chunks;
+    private long size;
+    // records are sliced whole and never overlap, so at most one crosses each boundary; its copy is kept by its start
+    private ConcurrentHashMap<Long, ByteBuffer> crossing = new ConcurrentHashMap<>();
+
+    public MappedFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            size = channel.size();
+            chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+            }
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public byte get(long offset) {
+        return chunks[(int) (offset >>> CHUNK_SHIFT)].get((int) (offset & CHUNK_MASK));
+    }
+
+    public int getInt(long offset) {
+        MappedByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+        int position = (int) (offset & CHUNK_MASK);
+        return position <= chunk.capacity() - 4 ? chunk.getInt(position) : copy(offset, 4).getInt(0);
+    }
+
+    public long getLong(long offset) {
+        MappedByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+        int position = (int) (offset & CHUNK_MASK);
+        return position <= chunk.capacity() - 8 ? chunk.getLong(position) : copy(offset, 8).getLong(0);
+    }
+
+    public double getDouble(long offset) {
+        return Double.longBitsToDouble(getLong(offset));
+    }
+
+    // fills bytes with the file's bytes from offset on
+    public void get(long offset, byte[] bytes) {
+        int copied = 0;
+        while (copied < bytes.length) {
+            MappedByteBuffer chunk = chunks[(int) ((offset + copied) >>> CHUNK_SHIFT)];
+            int position = (int) ((offset + copied) & CHUNK_MASK);
+            int length = Math.min(bytes.length - copied, chunk.capacity() - position);
+            chunk.get(position, bytes, copied, length);
+            copied += length;
+        }
+    }
+
+    // a buffer of its own over the bytes from start to end, positioned at 0, for one thread to decode a record with
+    public ByteBuffer slice(long start, long end) {
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IllegalStateException("a record of " + (end - start) + " bytes is too large to read");
+        }
+        int length = (int) (end - start);
+        if (length == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        MappedByteBuffer chunk = chunks[(int) (start >>> CHUNK_SHIFT)];
+        int position = (int) (start & CHUNK_MASK);
+        if (position <= chunk.capacity() - length) {
+            return chunk.slice(position, length);
+        }
+        ByteBuffer copy = crossing.get(start);
+        if (copy == null || copy.capacity() != length) {
+            copy = copy(start, length);
+            crossing.put(start, copy);
+        }
+        return copy.duplicate();
+    }
+
+    private ByteBuffer copy(long offset, int length) {
+        byte[] bytes = new byte[length];
+        get(offset, bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,34 @@
+import java.util.*;
+
+// Log-structured merging by document count: segments are grouped into levels that grow by MERGE_FACTOR, with
+// every segment below MIN_MERGE_DOCUMENTS on the lowest level, and MERGE_FACTOR adjacent segments on the same
+// level are merged into one on the next. Each document is then rewritten about log(N / MIN_MERGE_DOCUMENTS)
+// times over the life of the index, and there are at most MERGE_FACTOR - 1 segments per level.
+public class MergePolicy {
+    public static final int MERGE_FACTOR = 4;
+    public static final int MIN_MERGE_DOCUMENTS = 1000;
+
+    // the oldest run of segments to merge, or null when none is due
+    public static List<String> findMerge(SegmentManifest manifest) {
+        List<String> names = manifest.getNames();
+        for (int start = 0; start + MERGE_FACTOR <= names.size(); start++) {
+            int level = level(manifest.getDocumentCount(start));
+            int end = start + 1;
+            while (end < start + MERGE_FACTOR && level(manifest.getDocumentCount(end)) == level) {
+                end++;
+            }
+            if (end == start + MERGE_FACTOR) {
+                return new ArrayList<>(names.subList(start, end));
+            }
+        }
+        return null;
+    }
+
+    private static int level(int documentCount) {
+        int level = 0;
+        for (long size = MIN_MERGE_DOCUMENTS; documentCount >= size; size *= MERGE_FACTOR) {
+            level++;
+        }
+        return level;
+    }
+}
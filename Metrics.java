@@ -0,0 +1,177 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// The process's latency histograms, counters and gauges for searching and indexing, in one place so every program
+// reports the same names. They are recorded all the time, a System.nanoTime() call and a few atomic adds per stage,
+// and read by formatting them in the Prometheus text format (SearchServer's /metrics, or a file written with
+// --metrics) or as a table of stage latencies.
+public class Metrics {
+    // how often --metrics rewrites its file and IndexEngine reports progress
+    public static final int DUMP_INTERVAL = 10;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final Map<String, Family> families = new LinkedHashMap<>();
+
+    // Stages of answering a query. Tokenizing and lexicon lookups are recorded each time a shard parses query text,
+    // for searching or for a snippet, and postings, scoring and top k once per shard searched. Postings blocks are
+    // decoded lazily as scoring reaches them, so their decoding is part of the scoring stage and is counted by the
+    // postings and blocks counters below.
+    public static final LatencyHistogram QUERY = searchStage("query");
+    public static final LatencyHistogram TOKENIZE = searchStage("tokenize");
+    public static final LatencyHistogram LEXICON_LOOKUP = searchStage("lexicon_lookup");
+    public static final LatencyHistogram POSTINGS_READ = searchStage("postings_read");
+    public static final LatencyHistogram SCORING = searchStage("scoring");
+    public static final LatencyHistogram TOP_K = searchStage("top_k");
+    public static final LatencyHistogram PROXIMITY_RERANK = searchStage("proximity_rerank");
+    public static final LatencyHistogram SNIPPET = searchStage("snippet");
+    public static final LatencyHistogram REMOTE_SHARD = searchStage("remote_shard");
+    // the feedback search and the choice of expansion terms of a query expanded from its top documents
+    public static final LatencyHistogram QUERY_EXPANSION = searchStage("query_expansion");
+
+    public static final LongAdder QUERIES = counter("search_queries_total", "Queries searched");
+    public static final LongAdder RESULT_CACHE_HITS = counter("search_result_cache_hits_total", "Shard searches answered from the result cache");
+    public static final LongAdder POSTINGS_DECODED = counter("search_postings_decoded_total", "Postings decoded while scoring");
+    public static final LongAdder BLOCKS_DECODED = counter("search_blocks_decoded_total", "Postings blocks entered and decoded while scoring");
+    public static final LongAdder BLOCKS_READ = counter("search_blocks_read_total", "Postings block headers read, including blocks skipped without decoding");
+
+    // stages of indexing: parsing a document, spilling the postings buffer to a sorted run, and merging the runs
+    public static final LatencyHistogram PARSE = indexStage("parse");
+    public static final LatencyHistogram FLUSH = indexStage("flush");
+    public static final LatencyHistogram MERGE_RUNS = indexStage("merge_runs");
+
+    public static final LongAdder DOCUMENTS_INDEXED = counter("index_documents_total", "Documents indexed");
+    public static final LongAdder INPUT_BYTES = counter("index_input_bytes_total", "Bytes read from the input files, as stored");
+    public static final LongAdder RUN_BYTES = counter("index_run_bytes_total", "Bytes of sorted runs written by flushes");
+    public static final AtomicLong LEXICON_TERMS = gauge("index_lexicon_terms", "Distinct terms in the lexicon being written");
+
+    private static final long startTime = System.nanoTime();
+
+    private static class Family {
+        private String help;
+        private String type;
+        private Map<String, Object> metrics = new LinkedHashMap<>();
+
+        public Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private static LatencyHistogram searchStage(String stage) {
+        return register("search_stage_seconds", "Time spent in each stage of answering a query", "summary", "stage=\"" + stage + "\"", new LatencyHistogram());
+    }
+
+    private static LatencyHistogram indexStage(String stage) {
+        return register("index_stage_seconds", "Time spent in each stage of indexing", "summary", "stage=\"" + stage + "\"", new LatencyHistogram());
+    }
+
+    private static LongAdder counter(String name, String help) {
+        return register(name, help, "counter", "", new LongAdder());
+    }
+
+    private static AtomicLong gauge(String name, String help) {
+        return register(name, help, "gauge", "", new AtomicLong());
+    }
+
+    private static synchronized <T> T register(String name, String help, String type, String labels, T metric) {
+        families.computeIfAbsent(name, n -> new Family(help, type)).metrics.put(labels, metric);
+        return metric;
+    }
+
+    public static synchronized String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            text.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            text.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+                if (value instanceof LatencyHistogram) {
+                    LatencyHistogram histogram = (LatencyHistogram) value;
+                    String prefix = labels.isEmpty() ? "" : labels + ",";
+                    for (double quantile : QUANTILES) {
+                        appendSample(text, name, prefix + "quantile=\"" + quantile + "\"", seconds(histogram.getQuantile(quantile)));
+                    }
+                    appendSample(text, name + "_sum", labels, seconds(histogram.getSum()));
+                    appendSample(text, name + "_count", labels, Long.toString(histogram.getCount()));
+                } else if (value instanceof LongAdder) {
+                    appendSample(text, name, labels, Long.toString(((LongAdder) value).sum()));
+                } else {
+                    appendSample(text, name, labels, Long.toString(((AtomicLong) value).get()));
+                }
+            }
+        }
+        appendSample(text.append("# HELP process_uptime_seconds Time since the metrics were created\n# TYPE process_uptime_seconds gauge\n"),
+            "process_uptime_seconds", "", seconds(System.nanoTime() - startTime));
+        return text.toString();
+    }
+
+    private static void appendSample(StringBuilder text, String name, String labels, String value) {
+        text.append(name);
+        if (!labels.isEmpty()) {
+            text.append('{').append(labels).append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    // writes toPrometheus() to the file through a temporary file and a rename, so a scraper never reads half of it
+    public static void write(String path) throws IOException {
+        File file = new File(path);
+        File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (Writer writer = new BufferedWriter(new FileWriter(temporary))) {
+            writer.write(toPrometheus());
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // runs the task every DUMP_INTERVAL seconds on a daemon thread until the process exits
+    public static void every(Runnable task) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(task, DUMP_INTERVAL, DUMP_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    // rewrites the file every DUMP_INTERVAL seconds
+    public static void writeEvery(String path) {
+        every(() -> {
+            try {
+                write(path);
+            } catch (IOException e) {
+                System.out.println("Error: " + e.getMessage());
+            }
+        });
+    }
+
+    // count, mean and quantiles of each search stage that was recorded, in milliseconds
+    public static synchronized String formatSearchStages() {
+        StringBuilder text = new StringBuilder(String.format("%-18s %9s %9s %9s %9s %9s %9s%n", "Stage", "count", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Map.Entry<String, Object> entry : families.get("search_stage_seconds").metrics.entrySet()) {
+            LatencyHistogram stage = (LatencyHistogram) entry.getValue();
+            long count = stage.getCount();
+            if (count == 0) {
+                continue;
+            }
+            // the labels are stage="name"
+            String name = entry.getKey().substring(7, entry.getKey().length() - 1);
+            text.append(String.format("%-18s %9d %9.3f %9.3f %9.3f %9.3f %9.3f%n", name, count, stage.getSum() / 1e6 / count,
+                stage.getQuantile(0.5) / 1e6, stage.getQuantile(0.99) / 1e6, stage.getQuantile(0.999) / 1e6, stage.getMax() / 1e6));
+        }
+        text.append(String.format("Postings decoded: %d in %d blocks (%d block headers read)",
+            POSTINGS_DECODED.sum(), BLOCKS_DECODED.sum(), BLOCKS_READ.sum()));
+        return text.toString();
+    }
+}
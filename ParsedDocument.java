@@ -0,0 +1,71 @@
+import java.time.LocalDate;
+import java.util.List;
+
+public class ParsedDocument {
+    private String docNo;
+    private String text;
+    private String headline;
+    private LocalDate date;
+    private String[] terms;
+    private int[] counts;
+    private int length;
+    private int[] positions;
+    private int[] tokenTerms;
+    private List<Sentence> sentences;
+
+    public ParsedDocument(String docNo, String text, String headline, LocalDate date, String[] terms, int[] counts, int length, int[] positions, int[] tokenTerms, List<Sentence> sentences) {
+        this.docNo = docNo;
+        this.text = text;
+        this.headline = headline;
+        this.date = date;
+        this.terms = terms;
+        this.counts = counts;
+        this.length = length;
+        this.positions = positions;
+        this.tokenTerms = tokenTerms;
+        this.sentences = sentences;
+    }
+
+    public String getDocNo() {
+        return docNo;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getHeadline() {
+        return headline;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public String[] getTerms() {
+        return terms;
+    }
+
+    public int[] getCounts() {
+        return counts;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    // the positions of every term, grouped by term in the order of getTerms (counts[i] for term i), or null when
+    // positions were not requested
+    public int[] getPositions() {
+        return positions;
+    }
+
+    // the term (an index into getTerms) of every token, in position order
+    public int[] getTokenTerms() {
+        return tokenTerms;
+    }
+
+    public List<Sentence> getSentences() {
+        return sentences;
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.Arrays;
+
+// Checks whether documents contain a phrase, using a postings and a positions cursor per phrase word.
+// Documents must be asked about in increasing docid order, since the cursors only move forward.
+public class PhraseMatcher {
+    private PostingsIterator[] postings;
+    private PositionsIterator[] positions;
+    private int[] candidates = new int[16];
+
+    public PhraseMatcher(int[] termIds, InvertedIndex index, PositionalIndex positionalIndex) {
+        postings = new PostingsIterator[termIds.length];
+        positions = new PositionsIterator[termIds.length];
+        for (int i = 0; i < termIds.length; i++) {
+            postings[i] = index.getPostings(termIds[i]);
+            positions[i] = positionalIndex.getPositions(termIds[i]);
+        }
+    }
+
+    public boolean matches(int docId) {
+        for (PostingsIterator cursor : postings) {
+            if (!cursor.advance(docId) || cursor.getDocId() != docId) {
+                return false;
+            }
+        }
+
+        // start positions of the phrase, narrowed word by word to those where word i is at start + i
+        int count = positions[0].read(postings[0]);
+        if (count > candidates.length) {
+            candidates = Arrays.copyOf(candidates, Math.max(count, candidates.length * 2));
+        }
+        System.arraycopy(positions[0].getPositions(), 0, candidates, 0, count);
+        for (int i = 1; i < postings.length && count > 0; i++) {
+            int tf = positions[i].read(postings[i]);
+            int[] wordPositions = positions[i].getPositions();
+            int kept = 0;
+            int j = 0;
+            for (int c = 0; c < count; c++) {
+                int wanted = candidates[c] + i;
+                while (j < tf && wordPositions[j] < wanted) {
+                    j++;
+                }
+                if (j < tf && wordPositions[j] == wanted) {
+                    candidates[kept++] = candidates[c];
+                }
+            }
+            count = kept;
+        }
+        return count > 0;
+    }
+}
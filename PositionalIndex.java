@@ -0,0 +1,38 @@
+import java.io.*;
+
+// Term positions, written by IndexEngine --positions. They live apart from the postings so that queries which do
+// not need them never read them: positions.bin holds each term's positions in blocks that mirror its postings
+// blocks, and positions-offsets.bin holds the start of each term's positions (8 bytes per termid).
+public class PositionalIndex {
+    public static final String POSITIONS_FILE = "positions.bin";
+    public static final String OFFSETS_FILE = "positions-offsets.bin";
+
+    private MappedFile positions;
+    private MappedFile offsets;
+    private int termCount;
+
+    public PositionalIndex(String directory) throws IOException {
+        positions = new MappedFile(new File(directory, POSITIONS_FILE));
+        offsets = new MappedFile(new File(directory, OFFSETS_FILE));
+        termCount = (int) (offsets.size() / 8);
+    }
+
+    public static boolean exists(String directory) {
+        return new File(directory, POSITIONS_FILE).exists() && new File(directory, OFFSETS_FILE).exists();
+    }
+
+    public PositionsIterator getPositions(int termId) {
+        return getPositions(termId, null);
+    }
+
+    // repositions an iterator previously returned by this index at the start of another term's positions
+    public PositionsIterator getPositions(int termId, PositionsIterator positionsIterator) {
+        if (positionsIterator == null) {
+            positionsIterator = new PositionsIterator();
+        }
+        long start = offsets.getLong((termId - 1) * 8L);
+        long end = termId < termCount ? offsets.getLong(termId * 8L) : positions.size();
+        positionsIterator.reset(positions.slice(start, end));
+        return positionsIterator;
+    }
+}
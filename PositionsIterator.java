@@ -0,0 +1,63 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Reads the positions of the posting a PostingsIterator over the same term is on. The postings cursor only
+// moves forward, so this one follows it lazily: whole blocks are skipped by their length prefix, and within a
+// block the positions of earlier postings are skipped by count.
+public class PositionsIterator {
+    private ByteBuffer buffer;
+    private int blockIndex;
+    private int blockStart;
+    private int blockEnd;
+    private int position;
+    private int skipped;
+    private int[] positions = new int[16];
+
+    // moves to the start of a term's positions, whose blocks fill the buffer
+    public void reset(ByteBuffer buffer) {
+        this.buffer = buffer;
+        blockIndex = -1;
+        blockEnd = 0;
+    }
+
+    // returns the number of positions read, which is the posting's tf; they are left in getPositions()
+    public int read(PostingsIterator postings) {
+        int targetBlock = postings.getBlockIndex();
+        while (blockIndex < targetBlock) {
+            buffer.position(blockEnd);
+            int length = HelperFunctions.readVByte(buffer);
+            blockStart = buffer.position();
+            blockEnd = blockStart + length;
+            blockIndex++;
+            position = blockStart;
+            skipped = 0;
+        }
+
+        int skip = postings.getPositionsSkip();
+        if (skip < skipped) {
+            position = blockStart;
+            skipped = 0;
+        }
+        buffer.position(position);
+        for (; skipped < skip; skipped++) {
+            HelperFunctions.readVByte(buffer);
+        }
+
+        int tf = postings.getTf();
+        if (tf > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(tf, positions.length * 2));
+        }
+        int value = 0;
+        for (int i = 0; i < tf; i++) {
+            value += HelperFunctions.readVByte(buffer);
+            positions[i] = value;
+        }
+        skipped += tf;
+        position = buffer.position();
+        return tf;
+    }
+
+    public int[] getPositions() {
+        return positions;
+    }
+}
@@ -0,0 +1,200 @@
+import java.nio.ByteBuffer;
+
+public class PostingsIterator {
+    public static final int END = Integer.MAX_VALUE;
+
+    private ByteBuffer buffer;
+    private int remaining;
+    private int docId;
+    private int tf;
+
+    private int blockCount;
+    private boolean blockEntered;
+    private int blockBaseDocId;
+    private int blockLastDocId;
+    private int blockMaxTf;
+    private int blockMinDocLength;
+    private int blockDataStart;
+    private int blockDataEnd;
+    // which block the cursor is in and the sum of the tfs before it in that block, which locate its positions
+    private int blockIndex;
+    private int positionsSkip;
+    // work done since the last reset, which queries add to Metrics
+    private int decodedCount;
+    private int blocksDecoded;
+
+    // set when iterating a cached, already decoded list; positions then index its arrays instead of the buffer
+    private DecodedPostings decoded;
+    private int decodedBlock;
+    private int decodedPosition;
+
+    // moves to the start of a list of postings, whose encoded blocks fill the buffer
+    public void reset(ByteBuffer buffer, int documentFrequency) {
+        decoded = null;
+        this.buffer = buffer;
+        reset(documentFrequency);
+    }
+
+    public void reset(DecodedPostings decodedPostings) {
+        decoded = decodedPostings;
+        decodedBlock = 0;
+        reset(decodedPostings.getDocumentFrequency());
+    }
+
+    private void reset(int documentFrequency) {
+        remaining = documentFrequency;
+        blockIndex = -1;
+        docId = 0;
+        tf = 0;
+        blockCount = 0;
+        blockLastDocId = 0;
+        decodedCount = 0;
+        blocksDecoded = 0;
+        if (remaining > 0) {
+            blockEntered = false;
+            blockDataEnd = 0;
+            readBlockHeader();
+        } else {
+            docId = END;
+            blockLastDocId = END;
+            blockEntered = true;
+        }
+    }
+
+    private void readBlockHeader() {
+        blockIndex++;
+        if (decoded != null) {
+            blockBaseDocId = blockLastDocId;
+            blockLastDocId = decoded.getBlockLastDocId(decodedBlock);
+            blockMaxTf = decoded.getBlockMaxTf(decodedBlock);
+            blockMinDocLength = decoded.getBlockMinDocLength(decodedBlock);
+            blockDataStart = decodedBlock * PostingsWriter.BLOCK_SIZE;
+            decodedBlock++;
+            blockCount = Math.min(PostingsWriter.BLOCK_SIZE, remaining);
+            remaining -= blockCount;
+            blockEntered = false;
+            return;
+        }
+        buffer.position(blockDataEnd);
+        blockBaseDocId = blockLastDocId;
+        blockLastDocId += HelperFunctions.readVByte(buffer);
+        int length = HelperFunctions.readVByte(buffer);
+        blockMaxTf = HelperFunctions.readVByte(buffer);
+        blockMinDocLength = HelperFunctions.readVByte(buffer);
+        blockDataStart = buffer.position();
+        blockDataEnd = blockDataStart + length;
+        blockCount = Math.min(PostingsWriter.BLOCK_SIZE, remaining);
+        remaining -= blockCount;
+        blockEntered = false;
+    }
+
+    private boolean nextBlock() {
+        if (remaining == 0) {
+            docId = END;
+            blockLastDocId = END;
+            blockCount = 0;
+            blockEntered = true;
+            return false;
+        }
+        readBlockHeader();
+        return true;
+    }
+
+    private void decode() {
+        if (decoded != null) {
+            if (!blockEntered) {
+                decodedPosition = blockDataStart;
+                blockEntered = true;
+                blocksDecoded++;
+                positionsSkip = 0;
+                tf = 0;
+            }
+            positionsSkip += tf;
+            docId = decoded.getDocId(decodedPosition);
+            tf = decoded.getTf(decodedPosition++);
+            blockCount--;
+            decodedCount++;
+            return;
+        }
+        if (!blockEntered) {
+            buffer.position(blockDataStart);
+            docId = blockBaseDocId;
+            blockEntered = true;
+            blocksDecoded++;
+            positionsSkip = 0;
+            tf = 0;
+        }
+        positionsSkip += tf;
+        docId += HelperFunctions.readVByte(buffer);
+        tf = HelperFunctions.readVByte(buffer);
+        blockCount--;
+        decodedCount++;
+    }
+
+    public boolean next() {
+        if (blockCount == 0 && !nextBlock()) {
+            return false;
+        }
+        decode();
+        return true;
+    }
+
+    public boolean advance(int target) {
+        if (blockEntered && docId >= target) {
+            return docId != END;
+        }
+        if (!shallowAdvance(target)) {
+            return false;
+        }
+        do {
+            decode();
+        } while (docId < target);
+        return true;
+    }
+
+    // moves to the block that may contain target by reading block headers only
+    public boolean shallowAdvance(int target) {
+        while (blockLastDocId < target) {
+            if (!nextBlock()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getDocId() {
+        return docId;
+    }
+
+    public int getTf() {
+        return tf;
+    }
+
+    public int getBlockLastDocId() {
+        return blockLastDocId;
+    }
+
+    public int getBlockMaxTf() {
+        return blockMaxTf;
+    }
+
+    public int getBlockMinDocLength() {
+        return blockMinDocLength;
+    }
+
+    public int getBlockIndex() {
+        return blockIndex;
+    }
+
+    public int getPositionsSkip() {
+        return positionsSkip;
+    }
+
+    public int getDecodedCount() {
+        return decodedCount;
+    }
+
+    public int getBlocksDecoded() {
+        return blocksDecoded;
+    }
+}
@@ -0,0 +1,432 @@
+import java.io.*;
+import java.util.*;
+
+public class PostingsWriter {
+    private static final int BYTES_PER_POSTING = 16;
+    // a positional posting also needs its start in positionData, and is budgeted for two positions
+    private static final int POSITIONS_PER_POSTING = 2;
+    private static final int BYTES_PER_POSITIONAL_POSTING = BYTES_PER_POSTING + 4 + 4 * POSITIONS_PER_POSTING;
+    private static final int BUFFER_SIZE = 1 << 20;
+    public static final int BLOCK_SIZE = 128;
+
+    private File directory;
+    private int[] termIds;
+    private int[] docIds;
+    private int[] tfs;
+    private int[] order;
+    private int[] termCounts = new int[1024];
+    private int size = 0;
+    private int maxTermId = 0;
+    private List<File> runs = new ArrayList<>();
+    private int[] documentLengths = new int[1024];
+    private boolean positional;
+    private int[] positionStarts;
+    private int[] positionData;
+    private int positionSize = 0;
+
+    public PostingsWriter(File directory, long memoryBudget, boolean positional) {
+        this.directory = directory;
+        this.positional = positional;
+        int bytesPerPosting = positional ? BYTES_PER_POSITIONAL_POSTING : BYTES_PER_POSTING;
+        int capacity = (int) Math.max(1024, Math.min((Integer.MAX_VALUE - 8) / POSITIONS_PER_POSTING, memoryBudget / bytesPerPosting));
+        termIds = new int[capacity];
+        docIds = new int[capacity];
+        tfs = new int[capacity];
+        order = new int[capacity];
+        if (positional) {
+            positionStarts = new int[capacity];
+            positionData = new int[capacity * POSITIONS_PER_POSTING];
+        }
+    }
+
+    public void addDocument(int docId, int length) {
+        if (docId >= documentLengths.length) {
+            documentLengths = Arrays.copyOf(documentLengths, Math.max(docId + 1, documentLengths.length * 2));
+        }
+        documentLengths[docId] = length;
+    }
+
+    public void addPosting(int termId, int docId, int tf) throws IOException {
+        if (size == termIds.length) {
+            spill();
+        }
+        addToBuffer(termId, docId, tf);
+    }
+
+    // positions[from] to positions[from + tf - 1] are the term's positions in the document, in increasing order
+    public void addPosting(int termId, int docId, int tf, int[] positions, int from) throws IOException {
+        if (size == termIds.length || positionSize + tf > positionData.length) {
+            spill();
+        }
+        if (tf > positionData.length) {
+            positionData = new int[tf];
+        }
+        positionStarts[size] = positionSize;
+        System.arraycopy(positions, from, positionData, positionSize, tf);
+        positionSize += tf;
+        addToBuffer(termId, docId, tf);
+    }
+
+    private void addToBuffer(int termId, int docId, int tf) {
+        termIds[size] = termId;
+        docIds[size] = docId;
+        tfs[size] = tf;
+        size++;
+        if (termId > maxTermId) {
+            maxTermId = termId;
+        }
+    }
+
+    private void spill() throws IOException {
+        if (size == 0) {
+            return;
+        }
+        long startTime = System.nanoTime();
+
+        // counting sort by termId; postings arrive in docId order so the sort being stable keeps each list sorted
+        if (termCounts.length < maxTermId + 2) {
+            termCounts = new int[Math.max(maxTermId + 2, termCounts.length * 2)];
+        } else {
+            Arrays.fill(termCounts, 0, maxTermId + 2, 0);
+        }
+        for (int i = 0; i < size; i++) {
+            termCounts[termIds[i] + 1]++;
+        }
+        for (int t = 1; t <= maxTermId + 1; t++) {
+            termCounts[t] += termCounts[t - 1];
+        }
+        for (int i = 0; i < size; i++) {
+            order[termCounts[termIds[i]]++] = i;
+        }
+
+        File runFile = new File(directory, "run-" + runs.size() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), BUFFER_SIZE));
+        int i = 0;
+        while (i < size) {
+            int termId = termIds[order[i]];
+            int end = i;
+            while (end < size && termIds[order[end]] == termId) {
+                end++;
+            }
+
+            HelperFunctions.writeVByte(out, termId);
+            HelperFunctions.writeVByte(out, end - i);
+            int previousDocId = 0;
+            for (; i < end; i++) {
+                int posting = order[i];
+                HelperFunctions.writeVByte(out, docIds[posting] - previousDocId);
+                HelperFunctions.writeVByte(out, tfs[posting]);
+                previousDocId = docIds[posting];
+                if (positional) {
+                    int previousPosition = 0;
+                    for (int p = positionStarts[posting]; p < positionStarts[posting] + tfs[posting]; p++) {
+                        HelperFunctions.writeVByte(out, positionData[p] - previousPosition);
+                        previousPosition = positionData[p];
+                    }
+                }
+            }
+        }
+        out.close();
+
+        runs.add(runFile);
+        size = 0;
+        positionSize = 0;
+        Metrics.RUN_BYTES.add(runFile.length());
+        Metrics.FLUSH.recordSince(startTime);
+    }
+
+    public void close(int termCount) throws IOException {
+        spill();
+        termIds = null;
+        docIds = null;
+        tfs = null;
+        order = null;
+        positionStarts = null;
+        positionData = null;
+        long startTime = System.nanoTime();
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<>();
+        for (int i = 0; i < runs.size(); i++) {
+            RunReader reader = new RunReader(runs.get(i), i);
+            if (reader.nextTerm()) {
+                queue.add(reader);
+            }
+        }
+
+        IndexFilesWriter files = new IndexFilesWriter(directory, positional);
+        List<RunReader> termRuns = new ArrayList<>();
+
+        for (int termId = 1; termId <= termCount; termId++) {
+            termRuns.clear();
+            int documentFrequency = 0;
+            while (!queue.isEmpty() && queue.peek().termId == termId) {
+                RunReader reader = queue.remove();
+                termRuns.add(reader);
+                documentFrequency += reader.count;
+            }
+
+            // runs hold disjoint, increasing docid ranges, so the merged list is their concatenation
+            BlockWriter blockWriter = files.startTerm(documentFrequency);
+            for (RunReader reader : termRuns) {
+                int docId = 0;
+                for (int i = 0; i < reader.count; i++) {
+                    docId += HelperFunctions.readVByte(reader.in);
+                    int tf = HelperFunctions.readVByte(reader.in);
+                    if (positional) {
+                        // positions are already delta-encoded within the document, which is how they are stored
+                        for (int p = 0; p < tf; p++) {
+                            blockWriter.addPosition(HelperFunctions.readVByte(reader.in));
+                        }
+                    }
+                    blockWriter.add(docId, tf, documentLengths[docId]);
+                }
+                if (reader.nextTerm()) {
+                    queue.add(reader);
+                }
+            }
+            files.finishTerm();
+        }
+        files.close();
+        for (File run : runs) {
+            run.delete();
+        }
+        Metrics.MERGE_RUNS.recordSince(startTime);
+    }
+
+    // Writes the postings of several indexes to the directory as one index, the documents of each following those
+    // of the one before: termIdMaps[i] gives the merged termid of each of index i's termids, docIdBases[i] is added
+    // to its docids, and documentLengths holds the merged index's document lengths. Each list is decoded and
+    // re-encoded into blocks once, with no runs to sort, and positions are copied when positionalIndexes is given.
+    public static void merge(File directory, InvertedIndex[] indexes, PositionalIndex[] positionalIndexes, int[][] termIdMaps, int[] docIdBases, int[] documentLengths, int termCount) throws IOException {
+        int[][] sourceTermIds = new int[indexes.length][termCount + 1];
+        for (int i = 0; i < indexes.length; i++) {
+            for (int termId = 1; termId < termIdMaps[i].length; termId++) {
+                sourceTermIds[i][termIdMaps[i][termId]] = termId;
+            }
+        }
+
+        boolean positional = positionalIndexes != null;
+        IndexFilesWriter files = new IndexFilesWriter(directory, positional);
+        for (int termId = 1; termId <= termCount; termId++) {
+            int documentFrequency = 0;
+            for (int i = 0; i < indexes.length; i++) {
+                if (sourceTermIds[i][termId] != 0) {
+                    documentFrequency += indexes[i].getDocumentFrequency(sourceTermIds[i][termId]);
+                }
+            }
+            BlockWriter blockWriter = files.startTerm(documentFrequency);
+            for (int i = 0; i < indexes.length; i++) {
+                int sourceTermId = sourceTermIds[i][termId];
+                if (sourceTermId == 0) {
+                    continue;
+                }
+                PostingsIterator postings = indexes[i].getPostings(sourceTermId);
+                PositionsIterator positions = positional ? positionalIndexes[i].getPositions(sourceTermId) : null;
+                while (postings.next()) {
+                    int docId = postings.getDocId() + docIdBases[i];
+                    if (positional) {
+                        int tf = positions.read(postings);
+                        int previousPosition = 0;
+                        for (int p = 0; p < tf; p++) {
+                            blockWriter.addPosition(positions.getPositions()[p] - previousPosition);
+                            previousPosition = positions.getPositions()[p];
+                        }
+                    }
+                    blockWriter.add(docId, postings.getTf(), documentLengths[docId]);
+                }
+            }
+            files.finishTerm();
+        }
+        files.close();
+    }
+
+    private static class RunReader implements Comparable<RunReader> {
+        private DataInputStream in;
+        private int index;
+        private int termId;
+        private int count;
+
+        public RunReader(File file, int index) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            this.index = index;
+        }
+
+        public boolean nextTerm() throws IOException {
+            int b = in.read();
+            if (b == -1) {
+                in.close();
+                return false;
+            }
+            termId = b & 0x7F;
+            for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+                b = in.read();
+                if (b == -1) {
+                    throw new EOFException();
+                }
+                termId |= (b & 0x7F) << shift;
+            }
+            count = HelperFunctions.readVByte(in);
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            int termComparison = Integer.compare(this.termId, other.termId);
+            return (termComparison != 0) ? termComparison : Integer.compare(this.index, other.index);
+        }
+    }
+
+    // postings.bin and postings-offsets.bin, and positions.bin and positions-offsets.bin when positional, written
+    // one term at a time in termid order
+    private static class IndexFilesWriter {
+        private CountingOutputStream postingsOut;
+        private DataOutputStream offsetsOut;
+        private CountingOutputStream positionsOut;
+        private DataOutputStream positionOffsetsOut;
+        private BlockWriter blockWriter;
+
+        public IndexFilesWriter(File directory, boolean positional) throws IOException {
+            postingsOut = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, InvertedIndex.POSTINGS_FILE)), BUFFER_SIZE));
+            offsetsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, InvertedIndex.OFFSETS_FILE)), BUFFER_SIZE));
+            if (positional) {
+                positionsOut = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, PositionalIndex.POSITIONS_FILE)), BUFFER_SIZE));
+                positionOffsetsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, PositionalIndex.OFFSETS_FILE)), BUFFER_SIZE));
+            }
+            blockWriter = new BlockWriter(postingsOut, positionsOut);
+        }
+
+        // the term's postings are then added to the returned writer in docid order
+        public BlockWriter startTerm(int documentFrequency) throws IOException {
+            offsetsOut.writeLong(postingsOut.getCount());
+            offsetsOut.writeInt(documentFrequency);
+            if (positionsOut != null) {
+                positionOffsetsOut.writeLong(positionsOut.getCount());
+            }
+            blockWriter.startTerm();
+            return blockWriter;
+        }
+
+        public void finishTerm() throws IOException {
+            blockWriter.finishTerm();
+            offsetsOut.writeInt(blockWriter.termMaxTf);
+            offsetsOut.writeInt(blockWriter.termMinDocLength);
+            offsetsOut.writeLong(blockWriter.termCollectionFrequency);
+        }
+
+        public void close() throws IOException {
+            postingsOut.close();
+            offsetsOut.close();
+            if (positionsOut != null) {
+                positionsOut.close();
+                positionOffsetsOut.close();
+            }
+        }
+    }
+
+    // each block of up to BLOCK_SIZE postings is preceded by a header holding its last docid (as a gap from the
+    // previous block), its encoded length in bytes, and its largest tf and shortest document length, so readers
+    // can skip blocks without decoding them and bound the score of any posting inside. Positions, when written, go
+    // to their own stream in blocks that mirror the postings blocks, each prefixed with its length in bytes
+    private static class BlockWriter {
+        private OutputStream out;
+        private OutputStream positionsOut;
+        private ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private ByteArrayOutputStream positionsData = new ByteArrayOutputStream();
+        private int previousBlockLastDocId;
+        private int previousDocId;
+        private int count;
+        private int blockMaxTf;
+        private int blockMinDocLength;
+        private int termMaxTf;
+        private int termMinDocLength;
+        private long termCollectionFrequency;
+
+        public BlockWriter(OutputStream out, OutputStream positionsOut) {
+            this.out = out;
+            this.positionsOut = positionsOut;
+        }
+
+        public void startTerm() {
+            previousBlockLastDocId = 0;
+            previousDocId = 0;
+            count = 0;
+            blockMaxTf = 0;
+            blockMinDocLength = Integer.MAX_VALUE;
+            termMaxTf = 0;
+            termMinDocLength = Integer.MAX_VALUE;
+            termCollectionFrequency = 0;
+        }
+
+        // positions of a posting are added before the posting itself
+        public void addPosition(int positionGap) throws IOException {
+            HelperFunctions.writeVByte(positionsData, positionGap);
+        }
+
+        public void add(int docId, int tf, int documentLength) throws IOException {
+            HelperFunctions.writeVByte(data, docId - previousDocId);
+            HelperFunctions.writeVByte(data, tf);
+            previousDocId = docId;
+            blockMaxTf = Math.max(blockMaxTf, tf);
+            blockMinDocLength = Math.min(blockMinDocLength, documentLength);
+            termCollectionFrequency += tf;
+            count++;
+            if (count == BLOCK_SIZE) {
+                flushBlock();
+            }
+        }
+
+        public void finishTerm() throws IOException {
+            if (count > 0) {
+                flushBlock();
+            }
+            if (termMinDocLength == Integer.MAX_VALUE) {
+                termMinDocLength = 0;
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            HelperFunctions.writeVByte(out, previousDocId - previousBlockLastDocId);
+            HelperFunctions.writeVByte(out, data.size());
+            HelperFunctions.writeVByte(out, blockMaxTf);
+            HelperFunctions.writeVByte(out, blockMinDocLength);
+            data.writeTo(out);
+            data.reset();
+            if (positionsOut != null) {
+                HelperFunctions.writeVByte(positionsOut, positionsData.size());
+                positionsData.writeTo(positionsOut);
+                positionsData.reset();
+            }
+
+            termMaxTf = Math.max(termMaxTf, blockMaxTf);
+            termMinDocLength = Math.min(termMinDocLength, blockMinDocLength);
+            previousBlockLastDocId = previousDocId;
+            count = 0;
+            blockMaxTf = 0;
+            blockMinDocLength = Integer.MAX_VALUE;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
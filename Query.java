@@ -0,0 +1,172 @@
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A parsed query: every known term for BM25, plus the termids of each "quoted phrase" of two or more words,
+// which a matching document must contain as consecutive tokens. Outside phrases a word can carry a weight, as in
+// police^0.25, that multiplies its BM25 score; expanded queries weight their terms this way. A term that occurs
+// more than once keeps the weight of its first occurrence, and words without one weigh 1. Text that uses the
+// operators AND, OR or NOT is a Boolean query (see BooleanQuery), whose terms are its words that are not negated.
+public class Query {
+    static final Pattern WEIGHTED_WORD = Pattern.compile("([^\\s\"^]+)\\^(\\d+(?:\\.\\d*)?|\\.\\d+)");
+
+    private String[] terms;
+    private int[] termIds;
+    private double[] weights;
+    private int[][] phrases;
+    private boolean satisfiable;
+    private BooleanQuery booleanQuery;
+
+    public Query(String[] terms, int[] termIds, double[] weights, int[][] phrases, boolean satisfiable, BooleanQuery booleanQuery) {
+        this.terms = terms;
+        this.termIds = termIds;
+        this.weights = weights;
+        this.phrases = phrases;
+        this.satisfiable = satisfiable;
+        this.booleanQuery = booleanQuery;
+    }
+
+    public static Query parse(String text, Lexicon lexicon) {
+        List<String> terms = new ArrayList<>();
+        List<Integer> termIds = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        boolean weighted = false;
+        List<int[]> phrases = new ArrayList<>();
+        boolean satisfiable = true;
+        long tokenizeTime = 0;
+        long lookupTime = 0;
+
+        long booleanStartTime = System.nanoTime();
+        if (BooleanQuery.isBoolean(text)) {
+            long lexedTime = System.nanoTime();
+            BooleanQuery booleanQuery = BooleanQuery.parse(text, lexicon, terms, termIds, weights);
+            Metrics.TOKENIZE.record(lexedTime - booleanStartTime);
+            Metrics.LEXICON_LOOKUP.record(System.nanoTime() - lexedTime);
+            boolean booleanWeighted = weights.stream().anyMatch(weight -> weight != 1);
+            return new Query(terms.toArray(new String[terms.size()]), toIntArray(termIds), booleanWeighted ? toDoubleArray(weights) : null,
+                    new int[0][], booleanQuery != null, booleanQuery);
+        }
+        tokenizeTime += System.nanoTime() - booleanStartTime;
+
+        // text between the 1st and 2nd quote, 3rd and 4th, ... is a phrase; an unclosed quote is ignored
+        String[] segments = text.split("\"", -1);
+        for (int i = 0; i < segments.length; i++) {
+            boolean phrase = i % 2 == 1 && i < segments.length - 1;
+            long startTime = System.nanoTime();
+            List<String> weightedTokens = new ArrayList<>();
+            List<Double> tokenWeights = new ArrayList<>();
+            if (phrase) {
+                addTokens(segments[i], 1, weightedTokens, tokenWeights);
+            } else {
+                weighted |= addWeightedTokens(segments[i], weightedTokens, tokenWeights);
+            }
+            String[] tokens = weightedTokens.toArray(new String[weightedTokens.size()]);
+            long tokenizedTime = System.nanoTime();
+            tokenizeTime += tokenizedTime - startTime;
+            int[] tokenIds = new int[tokens.length];
+            int known = 0;
+            for (int j = 0; j < tokens.length; j++) {
+                int tokenId = lexicon.getTermId(tokens[j]);
+                if (tokenId != 0) {
+                    tokenIds[known++] = tokenId;
+                    terms.add(tokens[j]);
+                    termIds.add(tokenId);
+                    weights.add(tokenWeights.get(j));
+                }
+            }
+            tokenIds = Arrays.copyOf(tokenIds, known);
+            lookupTime += System.nanoTime() - tokenizedTime;
+            if (phrase && tokens.length > 1) {
+                // a phrase with a word that is not in the lexicon cannot occur in any document
+                if (tokenIds.length < tokens.length) {
+                    satisfiable = false;
+                }
+                phrases.add(tokenIds);
+            }
+        }
+
+        Metrics.TOKENIZE.record(tokenizeTime);
+        Metrics.LEXICON_LOOKUP.record(lookupTime);
+
+        return new Query(terms.toArray(new String[terms.size()]), toIntArray(termIds), weighted ? toDoubleArray(weights) : null,
+                phrases.toArray(new int[phrases.size()][]), satisfiable, null);
+    }
+
+    private static int[] toIntArray(List<Integer> values) {
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static double[] toDoubleArray(List<Double> values) {
+        return values.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    // the words of the text as parse reads them, those of phrases included, and the weight of each; Boolean
+    // operators are not told apart from words
+    static void tokenize(String text, List<String> tokens, List<Double> weights) {
+        String[] segments = text.split("\"", -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (i % 2 == 1 && i < segments.length - 1) {
+                addTokens(segments[i], 1, tokens, weights);
+            } else {
+                addWeightedTokens(segments[i], tokens, weights);
+            }
+        }
+    }
+
+    // adds the tokens of text outside phrases, each with the weight written after its word; returns true if a word
+    // has one
+    private static boolean addWeightedTokens(String text, List<String> tokens, List<Double> weights) {
+        boolean weighted = false;
+        int end = 0;
+        if (text.indexOf('^') != -1) {
+            Matcher matcher = WEIGHTED_WORD.matcher(text);
+            while (matcher.find()) {
+                addTokens(text.substring(end, matcher.start()), 1, tokens, weights);
+                addTokens(matcher.group(1), Double.parseDouble(matcher.group(2)), tokens, weights);
+                weighted = true;
+                end = matcher.end();
+            }
+        }
+        addTokens(text.substring(end), 1, tokens, weights);
+        return weighted;
+    }
+
+    private static void addTokens(String text, double weight, List<String> tokens, List<Double> weights) {
+        for (String token : HelperFunctions.tokenizeText(text)) {
+            tokens.add(token);
+            weights.add(weight);
+        }
+    }
+
+    // the words of getTermIds(), in the same order
+    public String[] getTerms() {
+        return terms;
+    }
+
+    public int[] getTermIds() {
+        return termIds;
+    }
+
+    // the weight of each of getTermIds(), or null when no word of the query was given one
+    public double[] getWeights() {
+        return weights;
+    }
+
+    public int[][] getPhrases() {
+        return phrases;
+    }
+
+    public boolean hasPhrases() {
+        return phrases.length > 0 || (booleanQuery != null && booleanQuery.hasPhrases());
+    }
+
+    // the query's Boolean structure, or null for a query that is not Boolean
+    public BooleanQuery getBooleanQuery() {
+        return booleanQuery;
+    }
+
+    // false when a phrase contains a word no document has, so the query matches nothing
+    public boolean isSatisfiable() {
+        return satisfiable;
+    }
+}
@@ -0,0 +1,698 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+
+public class QueryEngine {
+    public enum Algorithm { EXHAUSTIVE, WAND, BMW, SAAT }
+
+    // proximity reranks this many BM25 results (or k, if larger), counting term pairs at most WINDOW tokens apart
+    public static final int PROXIMITY_CANDIDATES = 100;
+    public static final int PROXIMITY_WINDOW = 5;
+    // score-at-a-time weights a query's impacts to 1/WEIGHT_RESOLUTION of the index's smallest one
+    private static final int WEIGHT_RESOLUTION = 64;
+
+    private InvertedIndex index;
+    private Document[] documents;
+    private CollectionStatistics statistics;
+    private double[] termIdf;
+    private double[] documentK;
+    private ThreadLocal<Scratch> scratch;
+    private LruCache<QueryKey, Result[]> resultCache;
+    private PositionalIndex positionalIndex;
+    private ImpactIndex impactIndex;
+    private int impactBudget = Integer.MAX_VALUE;
+
+    public QueryEngine(InvertedIndex index, Document[] documents, CollectionStatistics statistics) {
+        this.index = index;
+        this.documents = documents;
+        this.statistics = statistics;
+        this.termIdf = new double[index.getTermCount() + 1];
+        for (int termId = 1; termId <= index.getTermCount(); termId++) {
+            termIdf[termId] = idf(index.getDocumentFrequency(termId));
+        }
+        this.documentK = new double[documents.length + 1];
+        for (int i = 0; i < documents.length; i++) {
+            documentK[i + 1] = K(documents[i].getLength());
+        }
+        this.scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    public CollectionStatistics getStatistics() {
+        return statistics;
+    }
+
+    public void setResultCache(LruCache<QueryKey, Result[]> resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public LruCache<QueryKey, Result[]> getResultCache() {
+        return resultCache;
+    }
+
+    public void setPositionalIndex(PositionalIndex positionalIndex) {
+        this.positionalIndex = positionalIndex;
+    }
+
+    public PositionalIndex getPositionalIndex() {
+        return positionalIndex;
+    }
+
+    public void setImpactIndex(ImpactIndex impactIndex) {
+        this.impactIndex = impactIndex;
+    }
+
+    // the most postings a score-at-a-time query reads before it stops and ranks what it has
+    public void setImpactBudget(int impactBudget) {
+        this.impactBudget = impactBudget;
+    }
+
+    public double idf(int n) {
+        return idf(n, statistics.getDocumentCount());
+    }
+
+    public static double idf(int n, double N) {
+        return Math.log((N - n + 0.5) / (n + 0.5));
+    }
+
+    public double K(int length) {
+        return K(length, statistics.getAverageLength());
+    }
+
+    public static double K(int length, double averageLength) {
+        return 1.2 * ((1 - 0.75) + 0.75 * (length / averageLength));
+    }
+
+    // tf/(K+tf) grows with tf and shrinks with document length, so the largest tf and the shortest
+    // document in a list bound every posting in it
+    private double upperBound(double idf, int maxTf, int minDocLength) {
+        if (idf <= 0) {
+            return 0;
+        }
+        return (maxTf / (K(minDocLength) + maxTf)) * idf;
+    }
+
+    public Result[] search(int[] tokenIds, int k, Algorithm algorithm) {
+        return search(tokenIds, null, null, new int[0][], null, false, k, algorithm);
+    }
+
+    // phrases restrict the results to documents containing them, and proximity adds a bonus for query terms that
+    // occur close together; both need the positional index
+    public Result[] search(Query query, int k, Algorithm algorithm, boolean proximity) {
+        return search(query, null, k, algorithm, proximity);
+    }
+
+    // documentFrequencies gives the document frequency to weight each of the query's termids by, in place of the
+    // index's own; a segment is searched with those of the whole collection so its scores agree with the others'
+    public Result[] search(Query query, int[] documentFrequencies, int k, Algorithm algorithm, boolean proximity) {
+        if (!query.isSatisfiable() || query.getTermIds().length == 0) {
+            return new Result[0];
+        }
+        return search(query.getTermIds(), query.getWeights(), documentFrequencies, query.getPhrases(), query.getBooleanQuery(), proximity, k, algorithm);
+    }
+
+    // weights, aligned with tokenIds, multiply each term's idf, and so its whole BM25 score; null weighs them all 1.
+    // A Boolean query is matched document-at-a-time whatever the algorithm, and its matches ranked by BM25 over
+    // tokenIds, its words that are not negated.
+    private Result[] search(int[] tokenIds, double[] weights, int[] documentFrequencies, int[][] phrases, BooleanQuery booleanQuery,
+            boolean proximity, int k, Algorithm algorithm) {
+        boolean booleanPhrases = booleanQuery != null && booleanQuery.hasPhrases();
+        if ((phrases.length > 0 || booleanPhrases || proximity) && positionalIndex == null) {
+            throw new IllegalStateException("phrase and proximity queries need an index built with --positions");
+        }
+        if (algorithm == Algorithm.SAAT && booleanQuery == null && impactIndex == null) {
+            throw new IllegalStateException("score-at-a-time queries need an index built with --impacts");
+        }
+        long startTime = System.nanoTime();
+        Scratch s = scratch.get();
+        int termCount = s.prepare(tokenIds);
+        QueryKey key = null;
+        if (resultCache != null) {
+            int[] keyFrequencies = null;
+            if (documentFrequencies != null) {
+                keyFrequencies = new int[termCount];
+                for (int i = 0; i < termCount; i++) {
+                    keyFrequencies[i] = documentFrequency(s.termIds[i], tokenIds, documentFrequencies);
+                }
+            }
+            double[] keyWeights = null;
+            if (weights != null) {
+                keyWeights = new double[termCount];
+                for (int i = 0; i < termCount; i++) {
+                    keyWeights[i] = weight(s.termIds[i], tokenIds, weights);
+                }
+            }
+            key = new QueryKey(Arrays.copyOf(s.termIds, termCount), keyFrequencies, keyWeights, phrases, booleanQuery, proximity, k, algorithm);
+            Result[] cached = resultCache.get(key);
+            if (cached != null) {
+                Metrics.RESULT_CACHE_HITS.increment();
+                return cached.clone();
+            }
+        }
+        s.heap.reset(proximity ? Math.max(k, PROXIMITY_CANDIDATES) : k);
+
+        PhraseMatcher[] phraseMatchers = null;
+        if (phrases.length > 0) {
+            phraseMatchers = new PhraseMatcher[phrases.length];
+            for (int i = 0; i < phrases.length; i++) {
+                phraseMatchers[i] = new PhraseMatcher(phrases[i], index, positionalIndex);
+            }
+        }
+
+        for (int i = 0; i < termCount; i++) {
+            int termId = s.termIds[i];
+            s.cursors[i] = index.getPostings(termId, s.cursors[i]);
+            s.weights[i] = weight(termId, tokenIds, weights);
+            s.idfs[i] = termIdf(termId, tokenIds, documentFrequencies) * s.weights[i];
+            s.upperBounds[i] = upperBound(s.idfs[i], index.getMaxTf(termId), index.getMinDocLength(termId));
+            s.order[i] = i;
+        }
+        long stageTime = Metrics.POSTINGS_READ.recordSince(startTime);
+
+        if (booleanQuery != null) {
+            booleanSearch(s, termCount, booleanQuery);
+        } else if (algorithm == Algorithm.EXHAUSTIVE) {
+            exhaustive(s, termCount, phraseMatchers);
+        } else if (algorithm == Algorithm.SAAT) {
+            scoreAtATime(s, termCount, weights != null, phraseMatchers);
+        } else {
+            wand(s, termCount, algorithm == Algorithm.BMW, phraseMatchers);
+        }
+        stageTime = Metrics.SCORING.recordSince(stageTime);
+        recordDecoding(s, termCount);
+
+        Result[] results = s.heap.toResults();
+        stageTime = Metrics.TOP_K.recordSince(stageTime);
+        if (proximity) {
+            results = rerankByProximity(results, s, termCount, k);
+            Metrics.PROXIMITY_RERANK.recordSince(stageTime);
+        }
+        if (resultCache != null) {
+            resultCache.put(key, results.clone(), key.sizeInBytes() + 48L * results.length);
+        }
+        return results;
+    }
+
+    // The matcher leapfrogs through the postings of the query's clauses to each matching document, and only those
+    // are scored, each term's cursor advancing straight to them, so an AND costs about as much as its shortest list.
+    // The matcher shares the terms' cursors, so a block both match and score from is decoded once.
+    private void booleanSearch(Scratch s, int termCount, BooleanQuery booleanQuery) {
+        Map<Integer, PostingsIterator> cursors = new HashMap<>();
+        for (int i = 0; i < termCount; i++) {
+            cursors.put(s.termIds[i], s.cursors[i]);
+        }
+        BooleanMatcher matcher = new BooleanMatcher(booleanQuery, index, positionalIndex, cursors);
+        int docId = 0;
+        while ((docId = matcher.advance(docId + 1)) != PostingsIterator.END) {
+            double K = documentK[docId];
+            double score = 0;
+            for (int i = 0; i < termCount; i++) {
+                PostingsIterator cursor = s.cursors[i];
+                if (cursor.advance(docId) && cursor.getDocId() == docId) {
+                    int tf = cursor.getTf();
+                    score += (tf / (K + tf)) * s.idfs[i];
+                }
+            }
+            s.heap.add(docId, score);
+        }
+        matcher.recordDecoding();
+    }
+
+    private static void recordDecoding(Scratch s, int termCount) {
+        long postings = 0;
+        long blocks = 0;
+        long headers = 0;
+        for (int i = 0; i < termCount; i++) {
+            postings += s.cursors[i].getDecodedCount();
+            blocks += s.cursors[i].getBlocksDecoded();
+            headers += s.cursors[i].getBlockIndex() + 1;
+        }
+        Metrics.POSTINGS_DECODED.add(postings);
+        Metrics.BLOCKS_DECODED.add(blocks);
+        Metrics.BLOCKS_READ.add(headers);
+    }
+
+    private double termIdf(int termId, int[] tokenIds, int[] documentFrequencies) {
+        return documentFrequencies == null ? termIdf[termId] : idf(documentFrequency(termId, tokenIds, documentFrequencies));
+    }
+
+    private static int documentFrequency(int termId, int[] tokenIds, int[] documentFrequencies) {
+        for (int i = 0; i < tokenIds.length; i++) {
+            if (tokenIds[i] == termId) {
+                return documentFrequencies[i];
+            }
+        }
+        return 0;
+    }
+
+    // the weight of the term's first occurrence in the query
+    private static double weight(int termId, int[] tokenIds, double[] weights) {
+        if (weights == null) {
+            return 1;
+        }
+        for (int i = 0; i < tokenIds.length; i++) {
+            if (tokenIds[i] == termId) {
+                return weights[i];
+            }
+        }
+        return 1;
+    }
+
+    private static boolean matchesPhrases(PhraseMatcher[] phraseMatchers, int docId) {
+        if (phraseMatchers == null) {
+            return true;
+        }
+        for (PhraseMatcher phraseMatcher : phraseMatchers) {
+            if (!phraseMatcher.matches(docId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void exhaustive(Scratch s, int termCount, PhraseMatcher[] phraseMatchers) {
+        double[] accumulators = s.accumulators();
+        boolean[] seen = s.seen;
+        int touched = 0;
+
+        for (int i = 0; i < termCount; i++) {
+            PostingsIterator cursor = s.cursors[i];
+            double idf = s.idfs[i];
+            while (cursor.next()) {
+                int docId = cursor.getDocId();
+                int tf = cursor.getTf();
+                if (!seen[docId]) {
+                    seen[docId] = true;
+                    s.touched[touched++] = docId;
+                }
+                accumulators[docId] += (tf / (documentK[docId] + tf)) * idf;
+            }
+        }
+
+        if (phraseMatchers != null) {
+            // phrase matchers only move forward through the postings
+            Arrays.sort(s.touched, 0, touched);
+        }
+        for (int i = 0; i < touched; i++) {
+            int docId = s.touched[i];
+            if (matchesPhrases(phraseMatchers, docId)) {
+                s.heap.add(docId, accumulators[docId]);
+            }
+            accumulators[docId] = 0;
+            seen[docId] = false;
+        }
+    }
+
+    // JASS-style score-at-a-time: the impact groups of all the query's terms are read highest impact first, adding
+    // each group's impact to the integer accumulators of its documents, until they are all read or impactBudget
+    // postings have been, in which case the documents are ranked by what has been added so far. Scores are the
+    // accumulated impacts times the index's scale, so they approximate BM25, leaving out the terms whose idf is not
+    // positive, which have no impacts. A weighted query's impacts are multiplied by their terms' weights and rounded
+    // to 1/WEIGHT_RESOLUTION of an impact.
+    private void scoreAtATime(Scratch s, int termCount, boolean weighted, PhraseMatcher[] phraseMatchers) {
+        int[] accumulators = s.impactAccumulators();
+        boolean[] seen = s.seen;
+        int segmentCount = 0;
+        s.ensureSegments(termCount * ImpactIndex.MAX_SEGMENTS);
+        for (int i = 0; i < termCount; i++) {
+            int from = segmentCount;
+            s.impacts[i] = impactIndex.getImpacts(s.termIds[i]);
+            segmentCount = impactIndex.readSegments(s.impacts[i], s.segmentImpacts, s.segmentCounts, s.segmentStarts, segmentCount);
+            for (int j = from; j < segmentCount; j++) {
+                s.segmentTerms[j] = i;
+                if (weighted) {
+                    s.segmentImpacts[j] = (int) Math.round(s.segmentImpacts[j] * s.weights[i] * WEIGHT_RESOLUTION);
+                }
+            }
+        }
+        // highest impact first, and among equal impacts in termid order
+        long[] order = s.segmentOrder;
+        for (int i = 0; i < segmentCount; i++) {
+            order[i] = (long) (Integer.MAX_VALUE - s.segmentImpacts[i]) << 32 | i;
+        }
+        Arrays.sort(order, 0, segmentCount);
+
+        int touched = 0;
+        int remaining = impactBudget;
+        for (int j = 0; j < segmentCount && remaining > 0; j++) {
+            int segment = (int) order[j];
+            int impact = s.segmentImpacts[segment];
+            int count = Math.min(s.segmentCounts[segment], remaining);
+            remaining -= count;
+            ByteBuffer buffer = s.impacts[s.segmentTerms[segment]];
+            buffer.position(s.segmentStarts[segment]);
+            int docId = 0;
+            for (int p = 0; p < count; p++) {
+                docId += HelperFunctions.readVByte(buffer);
+                if (!seen[docId]) {
+                    seen[docId] = true;
+                    s.touched[touched++] = docId;
+                }
+                accumulators[docId] += impact;
+            }
+        }
+        Metrics.POSTINGS_DECODED.add(impactBudget - remaining);
+
+        if (phraseMatchers != null) {
+            Arrays.sort(s.touched, 0, touched);
+        }
+        double scale = weighted ? impactIndex.getScale() / WEIGHT_RESOLUTION : impactIndex.getScale();
+        for (int i = 0; i < touched; i++) {
+            int docId = s.touched[i];
+            if (matchesPhrases(phraseMatchers, docId)) {
+                s.heap.add(docId, accumulators[docId] * scale);
+            }
+            accumulators[docId] = 0;
+            seen[docId] = false;
+        }
+    }
+
+    private void wand(Scratch s, int termCount, boolean blockMax, PhraseMatcher[] phraseMatchers) {
+        PostingsIterator[] cursors = s.cursors;
+        int[] order = s.order;
+        TopKHeap heap = s.heap;
+
+        for (int i = 0; i < termCount; i++) {
+            cursors[i].next();
+        }
+
+        while (true) {
+            // queries are short, so an insertion sort keeps the cursors ordered by docid without allocating
+            for (int i = 1; i < termCount; i++) {
+                int cursor = order[i];
+                int docId = cursors[cursor].getDocId();
+                int j = i - 1;
+                while (j >= 0 && cursors[order[j]].getDocId() > docId) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = cursor;
+            }
+
+            // the pivot is the first cursor at which the summed upper bounds could reach the current threshold
+            double threshold = heap.getThreshold();
+            double bound = 0;
+            int pivot = -1;
+            for (int i = 0; i < termCount; i++) {
+                if (cursors[order[i]].getDocId() == PostingsIterator.END) {
+                    break;
+                }
+                bound += s.upperBounds[order[i]];
+                if (bound >= threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot == -1) {
+                break;
+            }
+
+            int pivotDocId = cursors[order[pivot]].getDocId();
+            while (pivot + 1 < termCount && cursors[order[pivot + 1]].getDocId() == pivotDocId) {
+                pivot++;
+            }
+
+            if (blockMax) {
+                double blockBound = 0;
+                int nextCandidate = pivot + 1 < termCount ? cursors[order[pivot + 1]].getDocId() : PostingsIterator.END;
+                for (int i = 0; i <= pivot; i++) {
+                    PostingsIterator cursor = cursors[order[i]];
+                    if (cursor.shallowAdvance(pivotDocId)) {
+                        blockBound += upperBound(s.idfs[order[i]], cursor.getBlockMaxTf(), cursor.getBlockMinDocLength());
+                        if (cursor.getBlockLastDocId() < PostingsIterator.END) {
+                            nextCandidate = Math.min(nextCandidate, cursor.getBlockLastDocId() + 1);
+                        }
+                    }
+                }
+                if (blockBound < threshold) {
+                    for (int i = 0; i <= pivot; i++) {
+                        cursors[order[i]].advance(nextCandidate);
+                    }
+                    continue;
+                }
+            }
+
+            if (cursors[order[0]].getDocId() == pivotDocId) {
+                // summing in query term order keeps scores bit-identical to the exhaustive scorer
+                double K = documentK[pivotDocId];
+                double score = 0;
+                for (int i = 0; i < termCount; i++) {
+                    PostingsIterator cursor = cursors[i];
+                    if (cursor.getDocId() == pivotDocId) {
+                        int tf = cursor.getTf();
+                        score += (tf / (K + tf)) * s.idfs[i];
+                        cursor.next();
+                    }
+                }
+                if (matchesPhrases(phraseMatchers, pivotDocId)) {
+                    heap.add(pivotDocId, score);
+                }
+            } else {
+                for (int i = 0; i < pivot && cursors[order[i]].getDocId() < pivotDocId; i++) {
+                    cursors[order[i]].advance(pivotDocId);
+                }
+            }
+        }
+    }
+
+    // the query term at each position of a document (see TrecDocumentParser.position), or 0 where another term or
+    // none is; null without positions
+    public int[] getTermsAtPositions(int docId, int[] termIds) {
+        if (positionalIndex == null) {
+            return null;
+        }
+        int[] terms = new int[TrecDocumentParser.positionCount(documents[docId - 1].getLength())];
+        for (int termId : termIds) {
+            PostingsIterator postings = index.getPostings(termId);
+            if (postings.advance(docId) && postings.getDocId() == docId) {
+                PositionsIterator positions = positionalIndex.getPositions(termId);
+                int count = positions.read(postings);
+                for (int i = 0; i < count; i++) {
+                    terms[positions.getPositions()[i]] = termId;
+                }
+            }
+        }
+        return terms;
+    }
+
+    // adds the proximity bonus to BM25 results this index produced for the query, such as its share of a larger
+    // collection's top candidates, and returns the best k
+    public Result[] rerankByProximity(Query query, int[] documentFrequencies, Result[] candidates, int k) {
+        if (positionalIndex == null) {
+            throw new IllegalStateException("phrase and proximity queries need an index built with --positions");
+        }
+        long startTime = System.nanoTime();
+        Scratch s = scratch.get();
+        int termCount = s.prepare(query.getTermIds());
+        for (int i = 0; i < termCount; i++) {
+            s.idfs[i] = termIdf(s.termIds[i], query.getTermIds(), documentFrequencies) * weight(s.termIds[i], query.getTermIds(), query.getWeights());
+        }
+        Result[] results = rerankByProximity(candidates, s, termCount, k);
+        Metrics.PROXIMITY_RERANK.recordSince(startTime);
+        return results;
+    }
+
+    // BM25TP-style term proximity: each pair of query terms accumulates 1/d^2 over their occurrences d <= WINDOW
+    // tokens apart, and adds min(idf) * acc/(K + acc) to the document's BM25 score
+    private Result[] rerankByProximity(Result[] results, Scratch s, int termCount, int k) {
+        // positions are read in docid order, since their cursors only move forward
+        Result[] candidates = results.clone();
+        Arrays.sort(candidates, (a, b) -> Integer.compare(a.getDocId(), b.getDocId()));
+        PostingsIterator[] postings = new PostingsIterator[termCount];
+        PositionsIterator[] positions = new PositionsIterator[termCount];
+        for (int i = 0; i < termCount; i++) {
+            postings[i] = index.getPostings(s.termIds[i]);
+            positions[i] = positionalIndex.getPositions(s.termIds[i]);
+        }
+
+        int[][] termPositions = new int[termCount][];
+        int[] counts = new int[termCount];
+        Result[] reranked = new Result[candidates.length];
+        for (int r = 0; r < candidates.length; r++) {
+            int docId = candidates[r].getDocId();
+            for (int i = 0; i < termCount; i++) {
+                counts[i] = 0;
+                if (postings[i].advance(docId) && postings[i].getDocId() == docId) {
+                    counts[i] = positions[i].read(postings[i]);
+                    termPositions[i] = Arrays.copyOf(positions[i].getPositions(), counts[i]);
+                }
+            }
+
+            double bonus = 0;
+            for (int i = 0; i < termCount; i++) {
+                for (int j = i + 1; j < termCount; j++) {
+                    if (counts[i] == 0 || counts[j] == 0) {
+                        continue;
+                    }
+                    double accumulator = proximity(termPositions[i], counts[i], termPositions[j], counts[j]);
+                    double weight = Math.max(0, Math.min(s.idfs[i], s.idfs[j]));
+                    bonus += weight * accumulator / (documentK[docId] + accumulator);
+                }
+            }
+            reranked[r] = new Result(candidates[r].getId(), candidates[r].getScore() + bonus, docId);
+        }
+
+        Arrays.sort(reranked);
+        return reranked.length > k ? Arrays.copyOf(reranked, k) : reranked;
+    }
+
+    private static double proximity(int[] a, int countA, int[] b, int countB) {
+        double accumulator = 0;
+        int start = 0;
+        for (int x = 0; x < countA; x++) {
+            while (start < countB && b[start] < a[x] - PROXIMITY_WINDOW) {
+                start++;
+            }
+            for (int y = start; y < countB && b[y] <= a[x] + PROXIMITY_WINDOW; y++) {
+                int distance = b[y] - a[x];
+                accumulator += 1.0 / (distance * distance);
+            }
+        }
+        return accumulator;
+    }
+
+    // per-thread buffers reused across queries so steady-state scoring does not allocate
+    private class Scratch {
+        private int[] termIds = new int[8];
+        private PostingsIterator[] cursors = new PostingsIterator[8];
+        private double[] idfs = new double[8];
+        private double[] weights = new double[8];
+        private double[] upperBounds = new double[8];
+        private int[] order = new int[8];
+        private TopKHeap heap = new TopKHeap(documents);
+        private double[] accumulators;
+        private boolean[] seen;
+        private int[] touched;
+        private int[] impactAccumulators;
+        // each query term's impact groups, and for each group the term it is in and its place in their buffer
+        private ByteBuffer[] impacts = new ByteBuffer[8];
+        private int[] segmentImpacts = new int[0];
+        private int[] segmentCounts = new int[0];
+        private int[] segmentTerms = new int[0];
+        private int[] segmentStarts = new int[0];
+        private long[] segmentOrder = new long[0];
+
+        public int prepare(int[] tokenIds) {
+            if (tokenIds.length > termIds.length) {
+                int capacity = Math.max(tokenIds.length, termIds.length * 2);
+                termIds = new int[capacity];
+                cursors = Arrays.copyOf(cursors, capacity);
+                impacts = new ByteBuffer[capacity];
+                idfs = new double[capacity];
+                weights = new double[capacity];
+                upperBounds = new double[capacity];
+                order = new int[capacity];
+            }
+
+            // distinct termids in ascending order, so queries that differ only in word order or repetition
+            // score identically and share a result cache entry
+            int termCount = 0;
+            for (int tokenId : tokenIds) {
+                int i = termCount;
+                while (i > 0 && termIds[i - 1] > tokenId) {
+                    i--;
+                }
+                if (i > 0 && termIds[i - 1] == tokenId) {
+                    continue;
+                }
+                System.arraycopy(termIds, i, termIds, i + 1, termCount - i);
+                termIds[i] = tokenId;
+                termCount++;
+            }
+            return termCount;
+        }
+
+        public double[] accumulators() {
+            if (accumulators == null) {
+                accumulators = new double[documents.length + 1];
+                prepareTouched();
+            }
+            return accumulators;
+        }
+
+        public int[] impactAccumulators() {
+            if (impactAccumulators == null) {
+                impactAccumulators = new int[documents.length + 1];
+                prepareTouched();
+            }
+            return impactAccumulators;
+        }
+
+        // both kinds of accumulators track the documents they touch in the same arrays
+        private void prepareTouched() {
+            if (seen == null) {
+                seen = new boolean[documents.length + 1];
+                touched = new int[documents.length];
+            }
+        }
+
+        public void ensureSegments(int capacity) {
+            if (capacity > segmentImpacts.length) {
+                segmentImpacts = new int[capacity];
+                segmentCounts = new int[capacity];
+                segmentTerms = new int[capacity];
+                segmentStarts = new int[capacity];
+                segmentOrder = new long[capacity];
+            }
+        }
+    }
+
+    public static class QueryKey {
+        private int[] termIds;
+        private int[] documentFrequencies;
+        private double[] weights;
+        private int[][] phrases;
+        private BooleanQuery booleanQuery;
+        private boolean proximity;
+        private int k;
+        private Algorithm algorithm;
+
+        // documentFrequencies and weights, aligned with termIds, are null when the index's own are used and when
+        // the query is unweighted; booleanQuery is null for queries that are not Boolean
+        public QueryKey(int[] termIds, int[] documentFrequencies, double[] weights, int[][] phrases, BooleanQuery booleanQuery,
+                boolean proximity, int k, Algorithm algorithm) {
+            this.termIds = termIds;
+            this.documentFrequencies = documentFrequencies;
+            this.weights = weights;
+            this.phrases = phrases;
+            this.booleanQuery = booleanQuery;
+            this.proximity = proximity;
+            this.k = k;
+            this.algorithm = algorithm;
+        }
+
+        public long sizeInBytes() {
+            long size = 64 + 4L * termIds.length;
+            if (documentFrequencies != null) {
+                size += 16 + 4L * documentFrequencies.length;
+            }
+            if (weights != null) {
+                size += 16 + 8L * weights.length;
+            }
+            for (int[] phrase : phrases) {
+                size += 16 + 4L * phrase.length;
+            }
+            if (booleanQuery != null) {
+                size += 64L * termIds.length;
+            }
+            return size;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof QueryKey)) {
+                return false;
+            }
+            QueryKey key = (QueryKey) other;
+            return k == key.k && algorithm == key.algorithm && proximity == key.proximity
+                && Arrays.equals(termIds, key.termIds) && Arrays.equals(documentFrequencies, key.documentFrequencies)
+                && Arrays.equals(weights, key.weights) && Arrays.deepEquals(phrases, key.phrases)
+                && Objects.equals(booleanQuery, key.booleanQuery);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (Arrays.hashCode(termIds) * 31 + Arrays.deepHashCode(phrases)) * 31 + Arrays.hashCode(weights);
+            hash = hash * 31 + Objects.hashCode(booleanQuery);
+            return ((hash * 31 + k) * 31 + algorithm.ordinal()) * 2 + (proximity ? 1 : 0);
+        }
+    }
+}
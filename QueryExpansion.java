@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.*;
+
+// Pseudo-relevance feedback: a query's top documents from a first search are taken to be relevant, and the terms
+// that are frequent in them are added to the query, weighted, for a second search. The documents' terms come from
+// the forward index, so neither search reads document text, and the second costs about as much as any query of
+// its length. Terms in more than MAX_DOCUMENT_FRACTION of the collection are never added.
+//
+// RM3 (relevance model 3) weights each feedback document by its share of their total BM25 score and each term by
+// the sum over the documents of that weight times tf/length, an estimate of P(term | relevant), and adds the terms
+// with the largest. Rocchio gives the documents equal weight, so a term's weight is its share of the centroid of
+// their tf/length vectors, and adds the terms whose weight times idf is largest, as a tf-idf Rocchio centroid
+// would. Either way the feedback terms' weights are scaled to sum to 1 and mixed with the query's own (each word's
+// weight, 1 unless the query gives it one, over their total) as originalWeight * query + (1 - originalWeight) *
+// feedback. BM25 supplies the idf when the expanded query is scored, as the weights multiply each term's BM25 score.
+//
+// The expanded query is written as weighted words (word^weight, see Query) followed by the original query's
+// phrases, so it is searched like any other query text, in one shard or many. Weights are written in full, so
+// each shard parses back exactly the weights computed here.
+public class QueryExpansion {
+    public enum Method { RM3, ROCCHIO }
+
+    public static final int FEEDBACK_DOCUMENTS = 10;
+    public static final int FEEDBACK_TERMS = 10;
+    public static final double ORIGINAL_WEIGHT = 0.5;
+    // terms in more than this fraction of the documents are treated as stopwords
+    private static final double MAX_DOCUMENT_FRACTION = 0.1;
+    // feedback terms are chosen from this many times as many of the terms most frequent in the documents
+    private static final int CANDIDATES_PER_TERM = 10;
+
+    private Method method;
+    private int feedbackDocuments;
+    private int feedbackTerms;
+    private double originalWeight;
+
+    public QueryExpansion(Method method, int feedbackDocuments, int feedbackTerms, double originalWeight) {
+        this.method = method;
+        this.feedbackDocuments = feedbackDocuments;
+        this.feedbackTerms = feedbackTerms;
+        this.originalWeight = originalWeight;
+    }
+
+    public int getFeedbackDocuments() {
+        return feedbackDocuments;
+    }
+
+    // the expanded text of the query, given its top documents in the collection; the text itself if there are none
+    public String expand(Shard collection, String text, Result[] feedback) throws IOException {
+        if (feedback.length == 0) {
+            return text;
+        }
+        int[] docIds = new int[feedback.length];
+        double[] weights = new double[feedback.length];
+        double totalScore = 0;
+        for (Result result : feedback) {
+            totalScore += Math.max(0, result.getScore());
+        }
+        for (int i = 0; i < feedback.length; i++) {
+            docIds[i] = feedback[i].getDocId();
+            weights[i] = method == Method.RM3 && totalScore > 0 ? Math.max(0, feedback[i].getScore()) / totalScore : 1.0 / feedback.length;
+        }
+        Map<String, Double> candidates = collection.getFeedbackTerms(docIds, weights, feedbackTerms * CANDIDATES_PER_TERM);
+
+        List<String> words = new ArrayList<>();
+        List<Double> wordWeights = new ArrayList<>();
+        Query.tokenize(text, words, wordWeights);
+        StringBuilder terms = new StringBuilder(text);
+        for (String candidate : candidates.keySet()) {
+            terms.append(' ').append(candidate);
+        }
+        Map<String, Integer> documentFrequencies = collection.getDocumentFrequencies(terms.toString());
+        double documentCount = collection.getStatistics().getDocumentCount();
+
+        Map<String, Double> selected = new HashMap<>();
+        for (Map.Entry<String, Double> candidate : candidates.entrySet()) {
+            int documentFrequency = documentFrequencies.getOrDefault(candidate.getKey(), 0);
+            if (documentFrequency == 0 || documentFrequency > MAX_DOCUMENT_FRACTION * documentCount) {
+                continue;
+            }
+            double idf = QueryEngine.idf(documentFrequency, documentCount);
+            if (method == Method.ROCCHIO && idf > 0) {
+                selected.put(candidate.getKey(), candidate.getValue() * idf);
+            } else if (method == Method.RM3) {
+                selected.put(candidate.getKey(), candidate.getValue());
+            }
+        }
+        selected = top(selected, feedbackTerms);
+        double feedbackTotal = 0;
+        for (String term : selected.keySet()) {
+            feedbackTotal += candidates.get(term);
+        }
+
+        Map<String, Double> expanded = new HashMap<>();
+        double queryWeight = 0;
+        for (int i = 0; i < words.size(); i++) {
+            if (documentFrequencies.containsKey(words.get(i))) {
+                queryWeight += wordWeights.get(i);
+            }
+        }
+        for (int i = 0; i < words.size() && queryWeight > 0; i++) {
+            if (documentFrequencies.containsKey(words.get(i))) {
+                expanded.merge(words.get(i), originalWeight * wordWeights.get(i) / queryWeight, Double::sum);
+            }
+        }
+        for (String term : selected.keySet()) {
+            expanded.merge(term, (1 - originalWeight) * candidates.get(term) / feedbackTotal, Double::sum);
+        }
+
+        StringBuilder query = new StringBuilder();
+        for (Map.Entry<String, Double> term : top(expanded, expanded.size()).entrySet()) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            // the shortest decimal that parses back to the same double, without the exponent Double.toString can use
+            query.append(term.getKey()).append('^').append(BigDecimal.valueOf(term.getValue()).toPlainString());
+        }
+        // text between the 1st and 2nd quote, 3rd and 4th, ... is a phrase, as Query reads it
+        String[] segments = text.split("\"", -1);
+        for (int i = 1; i < segments.length - 1; i += 2) {
+            query.append(" \"").append(segments[i]).append('"');
+        }
+        return query.toString();
+    }
+
+    // the count entries with the largest values, largest first and ties in term order
+    public static Map<String, Double> top(Map<String, Double> weights, int count) {
+        List<Map.Entry<String, Double>> entries = new ArrayList<>(weights.entrySet());
+        entries.sort(Map.Entry.<String, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        Map<String, Double> top = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> entry : entries.subList(0, Math.min(count, entries.size()))) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return top;
+    }
+}
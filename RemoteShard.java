@@ -0,0 +1,211 @@
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// A shard served by a SearchServer in another process, reached through its /shard/ endpoints. Answers are
+// plain text, one item per line, and scores are sent with Double.toString so they arrive exactly as computed.
+public class RemoteShard implements Shard {
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 60000;
+
+    private String address;
+    private CollectionStatistics statistics;
+    private boolean positions;
+    private boolean impacts;
+    private boolean forwardIndex;
+
+    public RemoteShard(String address) throws IOException {
+        this.address = address.endsWith("/") ? address.substring(0, address.length() - 1) : address;
+        int documentCount = 0;
+        long totalLength = 0;
+        for (String line : get("/shard/stats")) {
+            String[] fields = line.split(" ");
+            if (fields[0].equals("documents")) {
+                documentCount = Integer.parseInt(fields[1]);
+            } else if (fields[0].equals("total-length")) {
+                totalLength = Long.parseLong(fields[1]);
+            } else if (fields[0].equals("positions")) {
+                positions = Boolean.parseBoolean(fields[1]);
+            } else if (fields[0].equals("impacts")) {
+                impacts = Boolean.parseBoolean(fields[1]);
+            } else if (fields[0].equals("forward-index")) {
+                forwardIndex = Boolean.parseBoolean(fields[1]);
+            }
+        }
+        statistics = new CollectionStatistics(documentCount, totalLength);
+    }
+
+    @Override
+    public CollectionStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public boolean hasPositions() {
+        return positions;
+    }
+
+    @Override
+    public boolean hasImpacts() {
+        return impacts;
+    }
+
+    @Override
+    public boolean hasForwardIndex() {
+        return forwardIndex;
+    }
+
+    @Override
+    public Map<String, Integer> getDocumentFrequencies(String text) throws IOException {
+        Map<String, Integer> documentFrequencies = new HashMap<>();
+        for (String line : get("/shard/df?q=" + encode(text))) {
+            String[] fields = line.split(" ");
+            documentFrequencies.put(fields[0], Integer.parseInt(fields[1]));
+        }
+        return documentFrequencies;
+    }
+
+    @Override
+    public Result[] search(String text, Map<String, Integer> documentFrequencies, CollectionStatistics statistics, int k, QueryEngine.Algorithm algorithm, boolean proximity) throws IOException {
+        StringBuilder path = new StringBuilder("/shard/search?");
+        appendScoring(path, text, documentFrequencies, statistics);
+        path.append("&k=").append(k);
+        path.append("&algorithm=").append(algorithm.name().toLowerCase());
+        path.append("&proximity=").append(proximity);
+        return parseResults(get(path.toString()));
+    }
+
+    @Override
+    public Result[] rerankByProximity(String text, Map<String, Integer> documentFrequencies, CollectionStatistics statistics, Result[] candidates) throws IOException {
+        StringBuilder path = new StringBuilder("/shard/rerank?");
+        appendScoring(path, text, documentFrequencies, statistics);
+        StringBuilder list = new StringBuilder();
+        for (Result candidate : candidates) {
+            if (list.length() > 0) {
+                list.append(',');
+            }
+            list.append(candidate.getDocId()).append(':').append(Double.toString(candidate.getScore()));
+        }
+        path.append("&candidates=").append(encode(list.toString()));
+        return parseResults(get(path.toString()));
+    }
+
+    // the query and the statistics to score it with, as /shard/search and /shard/rerank take them
+    private static void appendScoring(StringBuilder path, String text, Map<String, Integer> documentFrequencies, CollectionStatistics statistics) {
+        path.append("q=").append(encode(text));
+        path.append("&documents=").append(statistics.getDocumentCount());
+        path.append("&total-length=").append(statistics.getTotalLength());
+        if (documentFrequencies != null) {
+            // terms are letters and digits only, so they need no escaping
+            StringBuilder frequencies = new StringBuilder();
+            for (Map.Entry<String, Integer> entry : documentFrequencies.entrySet()) {
+                if (frequencies.length() > 0) {
+                    frequencies.append(',');
+                }
+                frequencies.append(entry.getKey()).append(':').append(entry.getValue());
+            }
+            path.append("&df=").append(encode(frequencies.toString()));
+        }
+    }
+
+    // one "docid docno score" line per result
+    private static Result[] parseResults(List<String> lines) {
+        Result[] results = new Result[lines.size()];
+        for (int i = 0; i < results.length; i++) {
+            String[] fields = lines.get(i).split(" ");
+            results[i] = new Result(fields[1], Double.parseDouble(fields[2]), Integer.parseInt(fields[0]));
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, Double> getFeedbackTerms(int[] docIds, double[] weights, int count) throws IOException {
+        StringBuilder documents = new StringBuilder();
+        for (int i = 0; i < docIds.length; i++) {
+            if (documents.length() > 0) {
+                documents.append(',');
+            }
+            documents.append(docIds[i]).append(':').append(Double.toString(weights[i]));
+        }
+        // one "term sum" line per term, largest first
+        Map<String, Double> terms = new LinkedHashMap<>();
+        for (String line : get("/shard/terms?documents=" + encode(documents.toString()) + "&count=" + count)) {
+            String[] fields = line.split(" ");
+            terms.put(fields[0], Double.parseDouble(fields[1]));
+        }
+        return terms;
+    }
+
+    @Override
+    public String generateSnippet(int docId, String text) throws IOException {
+        return getField(docId, "snippet&q=" + encode(text));
+    }
+
+    @Override
+    public int getDocId(String docno) throws IOException {
+        return Integer.parseInt(getText("/shard/docid?docno=" + encode(docno)).trim());
+    }
+
+    @Override
+    public String getDocno(int docId) throws IOException {
+        return getField(docId, "docno");
+    }
+
+    @Override
+    public String getDocument(int docId) throws IOException {
+        return getField(docId, "document");
+    }
+
+    @Override
+    public String getHeadline(int docId) throws IOException {
+        return getField(docId, "headline");
+    }
+
+    @Override
+    public String getDate(int docId) throws IOException {
+        return getField(docId, "date");
+    }
+
+    private String getField(int docId, String field) throws IOException {
+        return getText("/shard/doc?id=" + docId + "&field=" + field);
+    }
+
+    private List<String> get(String path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : getText(path).split("\n")) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    // a 400 means the shard could not answer the query as asked (phrases without positions), which searching a
+    // local index reports with IllegalStateException
+    private String getText(String path) throws IOException {
+        long startTime = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(address + path).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        int status = connection.getResponseCode();
+        InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream();
+        String body = in == null ? "" : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        if (in != null) {
+            in.close();
+        }
+        if (status == 400) {
+            throw new IllegalStateException(body.trim());
+        } else if (status != 200) {
+            throw new IOException(address + path + " returned " + status + ": " + body.trim());
+        }
+        Metrics.REMOTE_SHARD.recordSince(startTime);
+        return body;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,429 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Renumbers the documents of an index so that documents sharing terms get nearby docids, which shrinks the docid
+// gaps the postings store and the blocks queries decode. The documents are re-indexed from the document store in
+// the new order into a new directory, so postings, positions, impacts, docnos.txt, doc-lengths.txt and the
+// document and sentence stores all follow it. Reports the size of the index files, and optionally query speed,
+// before and after.
+public class ReorderIndex {
+    private enum Order { DOCNO, DATE, BP }
+
+    private static final int TIMING_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        List<String> paths = new ArrayList<>();
+        Order order = Order.BP;
+        long memoryBudget = 256L << 20;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        String queriesPath = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--order") && i + 1 < args.length) {
+                    order = Order.valueOf(args[++i].toUpperCase());
+                } else if (args[i].equals("--memory") && i + 1 < args.length) {
+                    memoryBudget = Long.parseLong(args[++i]) << 20;
+                } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                    threadCount = Math.max(1, Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--queries") && i + 1 < args.length) {
+                    queriesPath = args[++i];
+                } else {
+                    paths.add(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            paths.clear();
+        }
+
+        if (paths.size() != 2) {
+            System.out.println("Usage: java ReorderIndex.java [--order <docno|date|bp>] [--memory <megabytes>] [--threads <count>] [--queries <path_to_queries>] <path_to_index> <path_to_output_directory>");
+            System.exit(1);
+        }
+
+        String inputDirectoryPath = paths.get(0);
+        String outputDirectoryPath = paths.get(1);
+        if (!new File(inputDirectoryPath, "docnos.txt").exists()) {
+            System.out.println("Error: " + inputDirectoryPath + " is not an index directory; reorder the segments or shards of an index one at a time");
+            System.exit(1);
+        }
+        File outputDirectory = new File(outputDirectoryPath);
+        if (outputDirectory.exists()) {
+            System.out.println("Error: the directory " + outputDirectoryPath + " already exists");
+            System.exit(1);
+        }
+
+        try {
+            Segment segment = new Segment(inputDirectoryPath);
+            long startTime = System.nanoTime();
+            int[] docIds = getOrder(segment, order, threadCount);
+            System.out.println(String.format("Ordered %d documents by %s in %.2f seconds", docIds.length, order.name().toLowerCase(), (System.nanoTime() - startTime) / Math.pow(10, 9)));
+
+            outputDirectory.mkdir();
+            File spool = new File(outputDirectory, "documents.tmp");
+            try (ReorderedDocuments documents = new ReorderedDocuments(segment.getDocumentStore(), docIds, spool)) {
+                IndexEngine.writeIndex(documents, outputDirectoryPath, memoryBudget, threadCount, segment.hasPositions());
+            } finally {
+                spool.delete();
+            }
+            if (segment.hasImpacts()) {
+                IndexEngine.writeImpacts(List.of(outputDirectoryPath));
+            }
+
+            printSizes(inputDirectoryPath, outputDirectoryPath);
+            if (queriesPath != null) {
+                List<String[]> queries = BatchRetrieval.loadQueries(queriesPath);
+                SegmentedIndex before = new SegmentedIndex(inputDirectoryPath);
+                SegmentedIndex after = new SegmentedIndex(outputDirectoryPath);
+                long[] beforeLatencies = timeQueries(before, queries, null);
+                long[] afterLatencies = timeQueries(after, queries, null);
+                // the indexes take turns, after a pass each to warm the page cache and the JIT, and each query keeps
+                // its fastest time so a stray pause does not count against either
+                for (int round = 0; round < TIMING_ROUNDS; round++) {
+                    timeQueries(before, queries, beforeLatencies);
+                    timeQueries(after, queries, afterLatencies);
+                }
+                printSpeed("Before", beforeLatencies);
+                printSpeed("After", afterLatencies);
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        } catch (ExecutionException e) {
+            System.out.println("Error: " + e.getCause().getMessage());
+            System.exit(1);
+        }
+    }
+
+    // the segment's docids in their new order
+    private static int[] getOrder(Segment segment, Order order, int threadCount) throws IOException {
+        Document[] documents = segment.getDocuments();
+        Integer[] docIds = new Integer[documents.length];
+        for (int i = 0; i < docIds.length; i++) {
+            docIds[i] = i + 1;
+        }
+        switch (order) {
+            case DOCNO:
+                Arrays.sort(docIds, Comparator.comparing(docId -> documents[docId - 1].getDocno()));
+                break;
+            case DATE:
+                DocumentStore documentStore = segment.getDocumentStore();
+                Arrays.sort(docIds, Comparator.<Integer>comparingInt(documentStore::getEpochDay).thenComparing(docId -> documents[docId - 1].getDocno()));
+                break;
+            case BP:
+                return new GraphBisection(segment.getIndex(), documents.length).order(threadCount);
+        }
+        int[] ordered = new int[docIds.length];
+        for (int i = 0; i < ordered.length; i++) {
+            ordered[i] = docIds[i];
+        }
+        return ordered;
+    }
+
+    private static void printSizes(String before, String after) {
+        String[] files = {InvertedIndex.POSTINGS_FILE, PositionalIndex.POSITIONS_FILE, ImpactIndex.IMPACTS_FILE, DocumentStore.DOCUMENTS_FILE, SentenceStore.SENTENCES_FILE};
+        long totalBefore = 0;
+        long totalAfter = 0;
+        for (File file : new File(before).listFiles()) {
+            totalBefore += file.length();
+        }
+        for (File file : new File(after).listFiles()) {
+            totalAfter += file.length();
+        }
+        for (String file : files) {
+            long sizeBefore = new File(before, file).length();
+            if (sizeBefore > 0) {
+                printSize(file, sizeBefore, new File(after, file).length());
+            }
+        }
+        printSize("total", totalBefore, totalAfter);
+    }
+
+    private static void printSize(String name, long before, long after) {
+        System.out.println(String.format("%-16s %10.2f MB -> %10.2f MB (%+.1f%%)", name, before / Math.pow(2, 20), after / Math.pow(2, 20), 100.0 * (after - before) / before));
+    }
+
+    // Searches each query for the top 10 with Block-Max WAND on one thread. Returns the latencies, or the fastest of
+    // them and those already in fastest.
+    private static long[] timeQueries(SegmentedIndex index, List<String[]> queries, long[] fastest) throws IOException {
+        long[] latencies = new long[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            long startTime = System.nanoTime();
+            index.search(queries.get(i)[1], 10, QueryEngine.Algorithm.BMW, false);
+            latencies[i] = System.nanoTime() - startTime;
+            if (fastest != null) {
+                fastest[i] = Math.min(fastest[i], latencies[i]);
+            }
+        }
+        return fastest != null ? fastest : latencies;
+    }
+
+    private static void printSpeed(String label, long[] latencies) {
+        long elapsed = 0;
+        for (long latency : latencies) {
+            elapsed += latency;
+        }
+        latencies = latencies.clone();
+        Arrays.sort(latencies);
+        System.out.println(String.format("%s: %.1f queries/second, latency p50 %.3f ms, p99 %.3f ms", label,
+            latencies.length / (elapsed / Math.pow(10, 9)), latencies[latencies.length / 2] / Math.pow(10, 6),
+            latencies[Math.max(0, (int) Math.ceil(0.99 * latencies.length) - 1)] / Math.pow(10, 6)));
+    }
+
+    // The documents of a store in a new order. Reading a store out of order inflates a block for every document,
+    // so the documents are first copied in docid order to an uncompressed spool file, which is then read from in
+    // the new order.
+    private static class ReorderedDocuments implements DocumentSource {
+        private RandomAccessFile spool;
+        private long[] offsets;
+        private int[] docIds;
+        private int next = 0;
+
+        public ReorderedDocuments(DocumentStore documentStore, int[] docIds, File spoolFile) throws IOException {
+            this.docIds = docIds;
+            offsets = new long[docIds.length + 2];
+            try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(spoolFile), 1 << 20)) {
+                long offset = 0;
+                for (int docId = 1; docId <= docIds.length; docId++) {
+                    byte[] bytes = documentStore.getDocument(docId).getBytes(StandardCharsets.UTF_8);
+                    out.write(bytes);
+                    offsets[docId] = offset;
+                    offset += bytes.length;
+                }
+                offsets[docIds.length + 1] = offset;
+            }
+            spool = new RandomAccessFile(spoolFile, "r");
+        }
+
+        @Override
+        public String nextDocument() throws IOException {
+            if (next == docIds.length) {
+                return null;
+            }
+            int docId = docIds[next++];
+            byte[] bytes = new byte[(int) (offsets[docId + 1] - offsets[docId])];
+            spool.seek(offsets[docId]);
+            spool.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            spool.close();
+        }
+    }
+
+    // Recursive graph bisection (Dhulipala et al., KDD 2016): the documents are split in half, documents are swapped
+    // between the halves while that lowers the estimated cost of the docid gaps of the terms they share, and each
+    // half is then split the same way. A term in d of the n documents of a half is estimated to cost
+    // d * log2(n / (d + 1)) bits there. The halves at each level are bisected in parallel.
+    private static class GraphBisection {
+        private static final int ITERATIONS = 20;
+        private static final int LEAF_SIZE = 16;
+        private static final int INSERTION_SORT_SIZE = 16;
+        // one per thread; every bisection leaves them zeroed when it finishes
+        private final ThreadLocal<Scratch> scratch;
+
+        private int[] termOffsets;
+        private int[] terms;
+        private int[] documents;
+        private double[] gains;
+
+        private class Scratch {
+            private int[] leftDegrees;
+            private int[] rightDegrees;
+            private double[] leftGains;
+            private double[] rightGains;
+            private boolean[] seen;
+            private int[] touched;
+            private int[] merged;
+
+            public Scratch(int termCount, int documentCount) {
+                leftDegrees = new int[termCount + 1];
+                rightDegrees = new int[termCount + 1];
+                leftGains = new double[termCount + 1];
+                rightGains = new double[termCount + 1];
+                seen = new boolean[termCount + 1];
+                touched = new int[termCount];
+                merged = new int[documentCount / 2 + 1];
+            }
+        }
+
+        // the terms of each document, read from the postings; terms in a single document have no gaps to shrink
+        public GraphBisection(InvertedIndex index, int documentCount) throws IOException {
+            int termCount = index.getTermCount();
+            termOffsets = new int[documentCount + 1];
+            for (int termId = 1; termId <= termCount; termId++) {
+                if (index.getDocumentFrequency(termId) > 1) {
+                    PostingsIterator postings = index.getPostings(termId);
+                    while (postings.next()) {
+                        termOffsets[postings.getDocId()]++;
+                    }
+                }
+            }
+            // every document's terms are held in one array
+            long postingCount = 0;
+            for (int i = 1; i <= documentCount; i++) {
+                postingCount += termOffsets[i];
+                if (postingCount > Integer.MAX_VALUE - 8) {
+                    throw new IOException("the index has too many postings to order by bp; order it by docno or date, or build it in smaller segments");
+                }
+                termOffsets[i] += termOffsets[i - 1];
+            }
+            terms = new int[termOffsets[documentCount]];
+            int[] filled = Arrays.copyOf(termOffsets, documentCount);
+            for (int termId = 1; termId <= termCount; termId++) {
+                if (index.getDocumentFrequency(termId) > 1) {
+                    PostingsIterator postings = index.getPostings(termId);
+                    while (postings.next()) {
+                        terms[filled[postings.getDocId() - 1]++] = termId;
+                    }
+                }
+            }
+
+            documents = new int[documentCount];
+            for (int i = 0; i < documentCount; i++) {
+                documents[i] = i;
+            }
+            gains = new double[documentCount];
+            scratch = ThreadLocal.withInitial(() -> new Scratch(termCount, documentCount));
+        }
+
+        // the docids in bisection order
+        public int[] order(int threadCount) {
+            ForkJoinPool pool = new ForkJoinPool(threadCount);
+            try {
+                pool.invoke(new Bisection(0, documents.length));
+            } finally {
+                pool.shutdown();
+            }
+            int[] docIds = new int[documents.length];
+            for (int i = 0; i < docIds.length; i++) {
+                docIds[i] = documents[i] + 1;
+            }
+            return docIds;
+        }
+
+        private class Bisection extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private int from;
+            private int to;
+
+            public Bisection(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= LEAF_SIZE) {
+                    return;
+                }
+                int middle = (from + to) >>> 1;
+                Scratch s = scratch.get();
+                for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+                    if (swap(s, middle) == 0) {
+                        break;
+                    }
+                }
+                invokeAll(new Bisection(from, middle), new Bisection(middle, to));
+            }
+
+            // one round of swaps between the halves; returns how many pairs were swapped
+            private int swap(Scratch s, int middle) {
+                int touchedCount = 0;
+                for (int i = from; i < to; i++) {
+                    int[] degrees = i < middle ? s.leftDegrees : s.rightDegrees;
+                    int document = documents[i];
+                    for (int j = termOffsets[document]; j < termOffsets[document + 1]; j++) {
+                        int termId = terms[j];
+                        degrees[termId]++;
+                        if (!s.seen[termId]) {
+                            s.seen[termId] = true;
+                            s.touched[touchedCount++] = termId;
+                        }
+                    }
+                }
+
+                // what moving a document that has the term to the other half saves, per term
+                double leftSize = middle - from;
+                double rightSize = to - middle;
+                for (int i = 0; i < touchedCount; i++) {
+                    int termId = s.touched[i];
+                    int left = s.leftDegrees[termId];
+                    int right = s.rightDegrees[termId];
+                    double cost = cost(left, leftSize) + cost(right, rightSize);
+                    s.leftGains[termId] = left > 0 ? cost - cost(left - 1, leftSize) - cost(right + 1, rightSize) : 0;
+                    s.rightGains[termId] = right > 0 ? cost - cost(left + 1, leftSize) - cost(right - 1, rightSize) : 0;
+                }
+                for (int i = from; i < to; i++) {
+                    double[] termGains = i < middle ? s.leftGains : s.rightGains;
+                    int document = documents[i];
+                    double gain = 0;
+                    for (int j = termOffsets[document]; j < termOffsets[document + 1]; j++) {
+                        gain += termGains[terms[j]];
+                    }
+                    gains[document] = gain;
+                }
+                for (int i = 0; i < touchedCount; i++) {
+                    int termId = s.touched[i];
+                    s.leftDegrees[termId] = 0;
+                    s.rightDegrees[termId] = 0;
+                    s.seen[termId] = false;
+                }
+
+                // the documents that gain most from moving are paired across the halves, while a swap still helps
+                sortByGain(s, from, middle);
+                sortByGain(s, middle, to);
+                int swaps = 0;
+                for (int i = from, j = middle; i < middle && j < to; i++, j++) {
+                    if (gains[documents[i]] + gains[documents[j]] <= 0) {
+                        break;
+                    }
+                    int document = documents[i];
+                    documents[i] = documents[j];
+                    documents[j] = document;
+                    swaps++;
+                }
+                return swaps;
+            }
+
+            // a stable merge sort of documents[from, to) by gain, largest first, on primitives since it runs on
+            // every iteration of every level
+            private void sortByGain(Scratch s, int from, int to) {
+                if (to - from <= INSERTION_SORT_SIZE) {
+                    for (int i = from + 1; i < to; i++) {
+                        int document = documents[i];
+                        int j = i;
+                        for (; j > from && Double.compare(gains[documents[j - 1]], gains[document]) < 0; j--) {
+                            documents[j] = documents[j - 1];
+                        }
+                        documents[j] = document;
+                    }
+                    return;
+                }
+                int middle = (from + to) >>> 1;
+                sortByGain(s, from, middle);
+                sortByGain(s, middle, to);
+                if (Double.compare(gains[documents[middle - 1]], gains[documents[middle]]) >= 0) {
+                    return;
+                }
+                int leftCount = middle - from;
+                System.arraycopy(documents, from, s.merged, 0, leftCount);
+                int i = 0;
+                int j = middle;
+                int k = from;
+                while (i < leftCount && j < to) {
+                    documents[k++] = Double.compare(gains[documents[j]], gains[s.merged[i]]) > 0 ? documents[j++] : s.merged[i++];
+                }
+                System.arraycopy(s.merged, i, documents, k, leftCount - i);
+            }
+        }
+
+        private static double cost(int degree, double size) {
+            return degree * Math.log(size / (degree + 1)) / Math.log(2);
+        }
+    }
+}
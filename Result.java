@@ -1,12 +1,18 @@
 public class Result implements Comparable<Result> {
     private String id;
     private double score;
+    private int docId;
 
     public Result(String id, double score) {
         this.id = id;
         this.score = score;
     }
 
+    public Result(String id, double score, int docId) {
+        this(id, score);
+        this.docId = docId;
+    }
+
     public String getId() {
         return id;
     }
@@ -15,6 +21,10 @@ public class Result implements Comparable<Result> {
         return score;
     }
 
+    public int getDocId() {
+        return docId;
+    }
+
     @Override
     public int compareTo(Result other) {
         int scoreComparison = Double.compare(other.score, this.score);
@@ -0,0 +1,512 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class SearchServer {
+    private static final int MAX_K = 1000;
+
+    private String directory;
+    private QueryEngine.Algorithm algorithm;
+    private long resultCacheSize;
+    private long postingsCacheSize;
+    private int impactBudget;
+    // replaced as a whole when the index's segments change; each request reads it once
+    private volatile SegmentedIndex index;
+
+    public SearchServer(String directory, QueryEngine.Algorithm algorithm, long resultCacheSize, long postingsCacheSize, int impactBudget) throws IOException {
+        this.directory = directory;
+        this.algorithm = algorithm;
+        this.resultCacheSize = resultCacheSize;
+        this.postingsCacheSize = postingsCacheSize;
+        this.impactBudget = impactBudget;
+        this.index = open();
+    }
+
+    private SegmentedIndex open() throws IOException {
+        SegmentedIndex index = new SegmentedIndex(directory);
+        index.setCaches(resultCacheSize, postingsCacheSize);
+        index.setImpactBudget(impactBudget);
+        return index;
+    }
+
+    // reopens the index if IndexEngine --append has added or merged segments since it was opened; requests
+    // already running finish on the segments they started with
+    private void refresh() {
+        try {
+            if (SegmentedIndex.getGeneration(directory) != index.getGeneration()) {
+                index = open();
+                System.out.println("Reopened " + directory + " (" + index.getShards().length + " shards, "
+                    + index.getStatistics().getDocumentCount() + " documents)");
+            }
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) {
+        List<String> paths = new ArrayList<>();
+        QueryEngine.Algorithm algorithm = QueryEngine.Algorithm.BMW;
+        String host = "localhost";
+        int port = 8080;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        int queueSize = 256;
+        long resultCacheSize = 64L << 20;
+        long postingsCacheSize = 64L << 20;
+        int refreshInterval = 10;
+        int impactBudget = Integer.MAX_VALUE;
+        String metricsPath = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--algorithm") && i + 1 < args.length) {
+                    algorithm = QueryEngine.Algorithm.valueOf(args[++i].toUpperCase());
+                } else if (args[i].equals("--host") && i + 1 < args.length) {
+                    host = args[++i];
+                } else if (args[i].equals("--port") && i + 1 < args.length) {
+                    port = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                    threadCount = Math.max(1, Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--queue") && i + 1 < args.length) {
+                    queueSize = Math.max(1, Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--result-cache") && i + 1 < args.length) {
+                    resultCacheSize = Long.parseLong(args[++i]) << 20;
+                } else if (args[i].equals("--postings-cache") && i + 1 < args.length) {
+                    postingsCacheSize = Long.parseLong(args[++i]) << 20;
+                } else if (args[i].equals("--refresh") && i + 1 < args.length) {
+                    refreshInterval = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--budget") && i + 1 < args.length) {
+                    impactBudget = Math.max(1, Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                    metricsPath = args[++i];
+                } else {
+                    paths.add(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            paths.clear();
+        }
+
+        if (paths.size() != 1) {
+            System.out.println("Usage: java SearchServer.java [--algorithm <exhaustive|wand|bmw|saat>] [--budget <postings>] [--host <address>] [--port <port>] [--threads <count>] [--queue <size>] [--result-cache <megabytes>] [--postings-cache <megabytes>] [--refresh <seconds>] [--metrics <path>] <path_to_directory>");
+            System.exit(1);
+        }
+
+        String directoryPath = paths.get(0);
+        File directory = new File(directoryPath);
+        if (!directory.exists() || !directory.isDirectory()) {
+            System.out.println("Error: the directory " + directoryPath + " does not exist");
+            System.exit(1);
+        }
+
+        try {
+            SearchServer searchServer = new SearchServer(directoryPath, algorithm, resultCacheSize, postingsCacheSize, impactBudget);
+            if (algorithm == QueryEngine.Algorithm.SAAT && !searchServer.index.hasImpacts()) {
+                System.out.println("Error: --algorithm saat needs an index built with --impacts, in a single segment if built with --append");
+                System.exit(1);
+            }
+
+            // a fixed pool with a bounded queue; when the queue is full the accepting thread runs the request itself,
+            // which stops it accepting new connections until the pool catches up
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), new ThreadPoolExecutor.CallerRunsPolicy());
+
+            // responses are small and a coordinator waits on each shard's, so do not let Nagle's algorithm hold them
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            // only local clients can connect unless --host names another address to listen on, such as 0.0.0.0 for all
+            HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+            server.createContext("/search", searchServer::handleSearch);
+            server.createContext("/doc/", searchServer::handleDocument);
+            server.createContext("/stats", searchServer::handleStats);
+            server.createContext("/shard/", searchServer::handleShard);
+            server.createContext("/metrics", searchServer::handleMetrics);
+            server.setExecutor(executor);
+            server.start();
+
+            ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+            if (refreshInterval > 0) {
+                refresher.scheduleWithFixedDelay(searchServer::refresh, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+            }
+
+            if (metricsPath != null) {
+                Metrics.writeEvery(metricsPath);
+            }
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(1);
+                executor.shutdown();
+                refresher.shutdown();
+            }));
+
+            String boundHost = server.getAddress().getHostString();
+            // an IPv6 address is bracketed in a URL
+            System.out.println("Listening on http://" + (boundHost.contains(":") ? "[" + boundHost + "]" : boundHost) + ":" + server.getAddress().getPort());
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // GET /search?q=<query>&k=<depth>&proximity=<true|false>&expansion=<rm3|rocchio|none>
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendError(exchange, 405, "method not allowed");
+                return;
+            }
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            String query = parameters.get("q");
+            if (query == null) {
+                sendError(exchange, 400, "missing parameter q");
+                return;
+            }
+            int k = 10;
+            if (parameters.containsKey("k")) {
+                try {
+                    k = Integer.parseInt(parameters.get("k"));
+                } catch (NumberFormatException e) {
+                    sendError(exchange, 400, "invalid parameter k");
+                    return;
+                }
+                if (k < 1 || k > MAX_K) {
+                    sendError(exchange, 400, "k must be between 1 and " + MAX_K);
+                    return;
+                }
+            }
+
+            boolean proximity = Boolean.parseBoolean(parameters.get("proximity"));
+            QueryExpansion expansion = null;
+            if (parameters.containsKey("expansion") && !parameters.get("expansion").equals("none")) {
+                try {
+                    expansion = new QueryExpansion(QueryExpansion.Method.valueOf(parameters.get("expansion").toUpperCase()),
+                        QueryExpansion.FEEDBACK_DOCUMENTS, QueryExpansion.FEEDBACK_TERMS, QueryExpansion.ORIGINAL_WEIGHT);
+                } catch (IllegalArgumentException e) {
+                    sendError(exchange, 400, "expansion must be rm3, rocchio or none");
+                    return;
+                }
+            }
+
+            long startTime = System.nanoTime();
+            SegmentedIndex index = this.index;
+            Result[] results;
+            String expanded = null;
+            try {
+                if (expansion != null) {
+                    expanded = index.expand(query, expansion, algorithm);
+                }
+                results = index.search(expanded != null ? expanded : query, k, algorithm, proximity);
+            } catch (IllegalStateException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            StringBuilder json = new StringBuilder();
+            json.append("{\"query\":");
+            appendString(json, query);
+            if (expanded != null) {
+                json.append(",\"expanded_query\":");
+                appendString(json, expanded);
+            }
+            json.append(",\"k\":").append(k).append(",\"results\":[");
+            for (int rank = 1; rank <= results.length; rank++) {
+                Result result = results[rank-1];
+                int docId = result.getDocId();
+                String snippet = index.generateSnippet(docId, query);
+                String headline = index.getHeadline(docId);
+                if (headline.isEmpty()) {
+                    headline = snippet.substring(0, Math.min(51, snippet.length())) + "...";
+                }
+
+                if (rank > 1) {
+                    json.append(',');
+                }
+                json.append("{\"rank\":").append(rank);
+                json.append(",\"docno\":");
+                appendString(json, result.getId());
+                json.append(",\"score\":").append(String.format("%.6f", result.getScore()));
+                json.append(",\"headline\":");
+                appendString(json, headline);
+                json.append(",\"date\":");
+                appendString(json, index.getDate(docId));
+                json.append(",\"snippet\":");
+                appendString(json, snippet.trim());
+                json.append('}');
+            }
+            double elapsed = (System.nanoTime() - startTime) / Math.pow(10, 6);
+            json.append("],\"time_ms\":").append(String.format("%.2f", elapsed)).append('}');
+            send(exchange, 200, json.toString());
+        } catch (IOException | RuntimeException e) {
+            sendError(exchange, 500, String.valueOf(e.getMessage()));
+        }
+    }
+
+    // GET /doc/<docno>
+    private void handleDocument(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendError(exchange, 405, "method not allowed");
+                return;
+            }
+            String docno = exchange.getRequestURI().getPath().substring("/doc/".length()).trim();
+            SegmentedIndex index = this.index;
+            int docId = index.getDocId(docno);
+            if (docId == 0) {
+                sendError(exchange, 404, "no document with docno " + docno);
+                return;
+            }
+
+            StringBuilder json = new StringBuilder();
+            json.append("{\"docno\":");
+            appendString(json, docno);
+            json.append(",\"headline\":");
+            appendString(json, index.getHeadline(docId));
+            json.append(",\"date\":");
+            appendString(json, index.getDate(docId));
+            json.append(",\"document\":");
+            appendString(json, index.getDocument(docId));
+            json.append('}');
+            send(exchange, 200, json.toString());
+        } catch (IOException | RuntimeException e) {
+            sendError(exchange, 500, String.valueOf(e.getMessage()));
+        }
+    }
+
+    // GET /stats
+    private void handleStats(HttpExchange exchange) throws IOException {
+        SegmentedIndex index = this.index;
+        StringBuilder json = new StringBuilder();
+        json.append("{\"shards\":").append(index.getShards().length);
+        json.append(",\"documents\":").append(index.getStatistics().getDocumentCount());
+        json.append(",\"result_cache\":");
+        appendCache(json, index.getResultCaches());
+        json.append(",\"postings_cache\":");
+        appendCache(json, index.getPostingsCaches());
+        json.append('}');
+        send(exchange, 200, json.toString());
+    }
+
+    // GET /metrics: the stage latencies and counters of Metrics in the Prometheus text format
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        send(exchange, 200, Metrics.toPrometheus(), "text/plain; version=0.0.4; charset=utf-8");
+    }
+
+    // GET /shard/stats, /shard/df?q=, /shard/search?q=&documents=&total-length=&df=&k=&algorithm=&proximity=,
+    // /shard/rerank?q=&documents=&total-length=&df=&candidates=, /shard/terms?documents=&count=, /shard/doc?id=&field=&q=
+    // and /shard/docid?docno=: this server's index as one shard of a larger collection, answered in plain text for
+    // RemoteShard. Searches score BM25 with the collection statistics and document
+    // frequencies they are given, and docids are this index's own.
+    private void handleShard(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendText(exchange, 405, "method not allowed");
+                return;
+            }
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            SegmentedIndex index = this.index;
+            StringBuilder text = new StringBuilder();
+            switch (exchange.getRequestURI().getPath()) {
+                case "/shard/stats":
+                    text.append("documents ").append(index.getStatistics().getDocumentCount()).append('\n');
+                    text.append("total-length ").append(index.getStatistics().getTotalLength()).append('\n');
+                    text.append("positions ").append(index.hasPositions()).append('\n');
+                    text.append("impacts ").append(index.hasImpacts()).append('\n');
+                    text.append("forward-index ").append(index.hasForwardIndex()).append('\n');
+                    break;
+                case "/shard/df":
+                    for (Map.Entry<String, Integer> entry : index.getDocumentFrequencies(parameters.get("q")).entrySet()) {
+                        text.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+                    }
+                    break;
+                case "/shard/search":
+                case "/shard/rerank":
+                    Map<String, Integer> documentFrequencies = null;
+                    if (parameters.containsKey("df")) {
+                        documentFrequencies = new HashMap<>();
+                        for (String frequency : parameters.get("df").split(",")) {
+                            int colon = frequency.lastIndexOf(':');
+                            if (colon != -1) {
+                                documentFrequencies.put(frequency.substring(0, colon), Integer.parseInt(frequency.substring(colon + 1)));
+                            }
+                        }
+                    }
+                    CollectionStatistics statistics = new CollectionStatistics(Integer.parseInt(parameters.get("documents")), Long.parseLong(parameters.get("total-length")));
+                    Result[] results;
+                    try {
+                        if (exchange.getRequestURI().getPath().equals("/shard/search")) {
+                            QueryEngine.Algorithm shardAlgorithm = parameters.containsKey("algorithm") ? QueryEngine.Algorithm.valueOf(parameters.get("algorithm").toUpperCase()) : algorithm;
+                            results = index.search(parameters.get("q"), documentFrequencies, statistics, Integer.parseInt(parameters.get("k")), shardAlgorithm, Boolean.parseBoolean(parameters.get("proximity")));
+                        } else {
+                            List<Result> candidates = new ArrayList<>();
+                            for (String candidate : parameters.get("candidates").split(",")) {
+                                int colon = candidate.indexOf(':');
+                                if (colon != -1) {
+                                    int docId = Integer.parseInt(candidate.substring(0, colon));
+                                    candidates.add(new Result(index.getDocno(docId), Double.parseDouble(candidate.substring(colon + 1)), docId));
+                                }
+                            }
+                            results = index.rerankByProximity(parameters.get("q"), documentFrequencies, statistics, candidates.toArray(new Result[0]));
+                        }
+                    } catch (IllegalStateException e) {
+                        sendText(exchange, 400, e.getMessage());
+                        return;
+                    }
+                    for (Result result : results) {
+                        text.append(result.getDocId()).append(' ').append(result.getId()).append(' ').append(Double.toString(result.getScore())).append('\n');
+                    }
+                    break;
+                case "/shard/terms":
+                    List<Integer> feedbackDocIds = new ArrayList<>();
+                    List<Double> feedbackWeights = new ArrayList<>();
+                    for (String document : parameters.get("documents").split(",")) {
+                        int colon = document.indexOf(':');
+                        if (colon != -1) {
+                            feedbackDocIds.add(Integer.parseInt(document.substring(0, colon)));
+                            feedbackWeights.add(Double.parseDouble(document.substring(colon + 1)));
+                        }
+                    }
+                    int[] docIds = new int[feedbackDocIds.size()];
+                    double[] weights = new double[docIds.length];
+                    for (int i = 0; i < docIds.length; i++) {
+                        docIds[i] = feedbackDocIds.get(i);
+                        weights[i] = feedbackWeights.get(i);
+                        if (docIds[i] < 1 || docIds[i] > index.getStatistics().getDocumentCount()) {
+                            sendText(exchange, 404, "no document with docid " + docIds[i]);
+                            return;
+                        }
+                    }
+                    Map<String, Double> terms;
+                    try {
+                        terms = index.getFeedbackTerms(docIds, weights, Integer.parseInt(parameters.get("count")));
+                    } catch (IllegalStateException e) {
+                        sendText(exchange, 400, e.getMessage());
+                        return;
+                    }
+                    for (Map.Entry<String, Double> term : terms.entrySet()) {
+                        text.append(term.getKey()).append(' ').append(Double.toString(term.getValue())).append('\n');
+                    }
+                    break;
+                case "/shard/doc":
+                    int docId = Integer.parseInt(parameters.get("id"));
+                    if (docId < 1 || docId > index.getStatistics().getDocumentCount()) {
+                        sendText(exchange, 404, "no document with docid " + docId);
+                        return;
+                    }
+                    switch (String.valueOf(parameters.get("field"))) {
+                        case "docno": text.append(index.getDocno(docId)); break;
+                        case "headline": text.append(index.getHeadline(docId)); break;
+                        case "date": text.append(index.getDate(docId)); break;
+                        case "document": text.append(index.getDocument(docId)); break;
+                        case "snippet": text.append(index.generateSnippet(docId, parameters.get("q"))); break;
+                        default:
+                            sendText(exchange, 404, "no field " + parameters.get("field"));
+                            return;
+                    }
+                    break;
+                case "/shard/docid":
+                    text.append(index.getDocId(parameters.get("docno")));
+                    break;
+                default:
+                    sendText(exchange, 404, "not found");
+                    return;
+            }
+            sendText(exchange, 200, text.toString());
+        } catch (IOException | RuntimeException e) {
+            sendText(exchange, 500, String.valueOf(e.getMessage()));
+        }
+    }
+
+    // a segmented index has one cache per segment, reported together
+    private static void appendCache(StringBuilder json, List<LruCache<?, ?>> caches) {
+        if (caches.isEmpty()) {
+            json.append("null");
+            return;
+        }
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        long entries = 0;
+        long bytes = 0;
+        long maxBytes = 0;
+        for (LruCache<?, ?> cache : caches) {
+            hits += cache.getHits();
+            misses += cache.getMisses();
+            evictions += cache.getEvictions();
+            entries += cache.size();
+            bytes += cache.getBytes();
+            maxBytes += cache.getMaxBytes();
+        }
+        json.append("{\"hits\":").append(hits);
+        json.append(",\"misses\":").append(misses);
+        json.append(",\"evictions\":").append(evictions);
+        json.append(",\"entries\":").append(entries);
+        json.append(",\"bytes\":").append(bytes);
+        json.append(",\"max_bytes\":").append(maxBytes);
+        json.append('}');
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals == -1 ? pair : pair.substring(0, equals);
+            String value = equals == -1 ? "" : pair.substring(equals + 1);
+            try {
+                parameters.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                // malformed percent-encoding; the parameter is ignored
+            }
+        }
+        return parameters;
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        json.append('}');
+        send(exchange, status, json.toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, body, "application/json; charset=utf-8");
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, body, "text/plain; charset=utf-8");
+    }
+
+    private static void send(HttpExchange exchange, int status, String body, String contentType) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
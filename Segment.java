@@ -0,0 +1,262 @@
+import java.io.*;
+import java.util.*;
+
+// One index directory written by IndexEngine, opened for searching. The files of a segment never change once
+// it is written; new documents go into new segments and merges write new segments in place of old ones.
+public class Segment implements Shard {
+    private String directory;
+    private Document[] documents;
+    private Lexicon lexicon;
+    private InvertedIndex index;
+    private CollectionStatistics statistics;
+    private DocumentStore documentStore;
+    private PositionalIndex positionalIndex;
+    private ImpactIndex impactIndex;
+    private ForwardIndex forwardIndex;
+    private long resultCacheSize = 0;
+    private int impactBudget = Integer.MAX_VALUE;
+    private Map<String, Integer> docIds;
+
+    // BM25 depends on the statistics of the collection the segment is searched as part of, so a query engine is
+    // built for each of the statistics it is asked to score with. A server searching its own index and serving as
+    // a shard of a larger one alternates between two, so that many are kept, least recently used first, each with
+    // its share of the result cache; queryEngine is the one used last.
+    private static final int MAX_QUERY_ENGINES = 2;
+    private Map<List<Long>, QueryEngine> queryEngines = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile QueryEngine queryEngine;
+
+    public Segment(String directory) throws IOException {
+        this.directory = directory;
+        documents = HelperFunctions.loadDocuments(directory);
+        lexicon = new Lexicon(directory);
+        index = new InvertedIndex(directory);
+        statistics = CollectionStatistics.load(directory);
+        documentStore = new DocumentStore(directory);
+        if (PositionalIndex.exists(directory)) {
+            positionalIndex = new PositionalIndex(directory);
+        }
+        if (ImpactIndex.exists(directory)) {
+            impactIndex = new ImpactIndex(directory);
+        }
+        if (ForwardIndex.exists(directory)) {
+            forwardIndex = new ForwardIndex(directory);
+        }
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public Document[] getDocuments() {
+        return documents;
+    }
+
+    public Lexicon getLexicon() {
+        return lexicon;
+    }
+
+    public InvertedIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public CollectionStatistics getStatistics() {
+        return statistics;
+    }
+
+    public DocumentStore getDocumentStore() {
+        return documentStore;
+    }
+
+    // null when the segment was written without --positions
+    public PositionalIndex getPositionalIndex() {
+        return positionalIndex;
+    }
+
+    @Override
+    public boolean hasPositions() {
+        return positionalIndex != null;
+    }
+
+    @Override
+    public boolean hasImpacts() {
+        return impactIndex != null;
+    }
+
+    @Override
+    public boolean hasForwardIndex() {
+        return forwardIndex != null;
+    }
+
+    public synchronized void setImpactBudget(int impactBudget) {
+        this.impactBudget = impactBudget;
+        for (QueryEngine queryEngine : queryEngines.values()) {
+            queryEngine.setImpactBudget(impactBudget);
+        }
+    }
+
+    // a size of 0 leaves the cache off
+    public synchronized void setCaches(long resultCacheSize, long postingsCacheSize) {
+        this.resultCacheSize = resultCacheSize;
+        for (QueryEngine queryEngine : queryEngines.values()) {
+            queryEngine.setResultCache(resultCacheSize > 0 ? new LruCache<>(resultCacheSize / MAX_QUERY_ENGINES) : null);
+        }
+        index.setPostingsCache(postingsCacheSize > 0 ? new LruCache<>(postingsCacheSize) : null);
+    }
+
+    public synchronized List<LruCache<?, ?>> getResultCaches() {
+        List<LruCache<?, ?>> caches = new ArrayList<>();
+        for (QueryEngine queryEngine : queryEngines.values()) {
+            if (queryEngine.getResultCache() != null) {
+                caches.add(queryEngine.getResultCache());
+            }
+        }
+        return caches;
+    }
+
+    @Override
+    public Map<String, Integer> getDocumentFrequencies(String text) {
+        Query query = Query.parse(text, lexicon);
+        Map<String, Integer> documentFrequencies = new HashMap<>();
+        for (int i = 0; i < query.getTerms().length; i++) {
+            documentFrequencies.put(query.getTerms()[i], index.getDocumentFrequency(query.getTermIds()[i]));
+        }
+        return documentFrequencies;
+    }
+
+    @Override
+    public Result[] search(String text, Map<String, Integer> documentFrequencies, CollectionStatistics statistics, int k, QueryEngine.Algorithm algorithm, boolean proximity) {
+        Query query = Query.parse(text, lexicon);
+        return getQueryEngine(statistics).search(query, documentFrequencies(query, documentFrequencies), k, algorithm, proximity);
+    }
+
+    @Override
+    public Result[] rerankByProximity(String text, Map<String, Integer> documentFrequencies, CollectionStatistics statistics, Result[] candidates) {
+        Query query = Query.parse(text, lexicon);
+        return getQueryEngine(statistics).rerankByProximity(query, documentFrequencies(query, documentFrequencies), candidates, candidates.length);
+    }
+
+    // the document frequencies of the query's terms, aligned with its termids, or null to use the segment's own
+    private static int[] documentFrequencies(Query query, Map<String, Integer> documentFrequencies) {
+        if (documentFrequencies == null) {
+            return null;
+        }
+        String[] terms = query.getTerms();
+        int[] frequencies = new int[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            frequencies[i] = documentFrequencies.getOrDefault(terms[i], 0);
+        }
+        return frequencies;
+    }
+
+    private QueryEngine getQueryEngine(CollectionStatistics statistics) {
+        QueryEngine queryEngine = this.queryEngine;
+        if (queryEngine != null && sameStatistics(queryEngine.getStatistics(), statistics)) {
+            return queryEngine;
+        }
+        synchronized (this) {
+            List<Long> key = List.of((long) statistics.getDocumentCount(), statistics.getTotalLength());
+            queryEngine = queryEngines.get(key);
+            if (queryEngine == null) {
+                queryEngine = new QueryEngine(index, documents, statistics);
+                queryEngine.setPositionalIndex(positionalIndex);
+                queryEngine.setImpactIndex(impactIndex);
+                queryEngine.setImpactBudget(impactBudget);
+                if (resultCacheSize > 0) {
+                    queryEngine.setResultCache(new LruCache<>(resultCacheSize / MAX_QUERY_ENGINES));
+                }
+                queryEngines.put(key, queryEngine);
+                if (queryEngines.size() > MAX_QUERY_ENGINES) {
+                    queryEngines.remove(queryEngines.keySet().iterator().next());
+                }
+            }
+            this.queryEngine = queryEngine;
+            return queryEngine;
+        }
+    }
+
+    private static boolean sameStatistics(CollectionStatistics a, CollectionStatistics b) {
+        return a.getDocumentCount() == b.getDocumentCount() && a.getTotalLength() == b.getTotalLength();
+    }
+
+    @Override
+    public String generateSnippet(int docId, String text) throws IOException {
+        long startTime = System.nanoTime();
+        int[] termIds = Query.parse(text, lexicon).getTermIds();
+        String snippet = SnippetGenerator.generateSnippet(docId, termIds, lexicon, getQueryEngine(), documentStore);
+        Metrics.SNIPPET.recordSince(startTime);
+        return snippet;
+    }
+
+    // snippets do not depend on BM25's statistics, so whichever engine was used last will do
+    private synchronized QueryEngine getQueryEngine() {
+        return queryEngine != null ? queryEngine : getQueryEngine(statistics);
+    }
+
+    // Sums each term's frequency in the documents, as a fraction of the document's length and times its weight,
+    // from the forward index, and returns the count terms with the largest sums, largest first
+    @Override
+    public Map<String, Double> getFeedbackTerms(int[] docIds, double[] weights, int count) {
+        if (forwardIndex == null) {
+            throw new IllegalStateException("query expansion needs an index with a forward index, please re-index");
+        }
+        Map<Integer, Double> sums = new HashMap<>();
+        int[] termIds = new int[0];
+        int[] tfs = new int[0];
+        for (int i = 0; i < docIds.length; i++) {
+            int length = documents[docIds[i] - 1].getLength();
+            int termCount = forwardIndex.getTermCount(docIds[i]);
+            if (length == 0) {
+                continue;
+            }
+            if (termCount > termIds.length) {
+                termIds = new int[termCount];
+                tfs = new int[termCount];
+            }
+            forwardIndex.getTerms(docIds[i], termIds, tfs);
+            for (int j = 0; j < termCount; j++) {
+                sums.merge(termIds[j], weights[i] * tfs[j] / length, Double::sum);
+            }
+        }
+
+        List<Map.Entry<Integer, Double>> terms = new ArrayList<>(sums.entrySet());
+        terms.sort(Map.Entry.<Integer, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        Map<String, Double> feedbackTerms = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Double> term : terms.subList(0, Math.min(count, terms.size()))) {
+            feedbackTerms.put(lexicon.getTerm(term.getKey()), term.getValue());
+        }
+        return feedbackTerms;
+    }
+
+    // the lookup table is built the first time it is needed
+    @Override
+    public synchronized int getDocId(String docno) {
+        if (docIds == null) {
+            docIds = new HashMap<>();
+            for (Document document : documents) {
+                docIds.put(document.getDocno(), document.getId());
+            }
+        }
+        return docIds.getOrDefault(docno, 0);
+    }
+
+    @Override
+    public String getDocno(int docId) {
+        return documents[docId - 1].getDocno();
+    }
+
+    @Override
+    public String getDocument(int docId) throws IOException {
+        return documentStore.getDocument(docId);
+    }
+
+    @Override
+    public String getHeadline(int docId) {
+        return documentStore.getHeadline(docId);
+    }
+
+    @Override
+    public String getDate(int docId) {
+        return documentStore.getDate(docId);
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+
+// The list of live segments of an incrementally built index (segments.txt), oldest first, with each segment's
+// document count, the number the next new segment will be named with, and a generation counted up whenever
+// the list changes. Searchers read it to find the segments; writers change it only while holding the index's write lock and
+// replace it by renaming a new copy over it, so a reader sees either the old list or the new one.
+public class SegmentManifest {
+    public static final String MANIFEST_FILE = "segments.txt";
+    public static final String LOCK_FILE = "write.lock";
+
+    // file locks are held by the whole JVM, so threads of one process also take turns through this
+    private static final Semaphore writers = new Semaphore(1);
+
+    private long generation = 0;
+    private int nextSegment = 1;
+    private List<String> names = new ArrayList<>();
+    private List<Integer> documentCounts = new ArrayList<>();
+
+    public static boolean exists(String directory) {
+        return new File(directory, MANIFEST_FILE).exists();
+    }
+
+    public static SegmentManifest load(String directory) throws IOException {
+        SegmentManifest manifest = new SegmentManifest();
+        File file = new File(directory, MANIFEST_FILE);
+        if (!file.exists()) {
+            return manifest;
+        }
+        // a malformed line must not leave the file open, as load runs while the write lock is held
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields[0].equals("generation")) {
+                    manifest.generation = Long.parseLong(fields[1]);
+                } else if (fields[0].equals("next")) {
+                    manifest.nextSegment = Integer.parseInt(fields[1]);
+                } else if (fields.length == 2) {
+                    manifest.names.add(fields[0]);
+                    manifest.documentCounts.add(Integer.parseInt(fields[1]));
+                }
+            }
+        }
+        return manifest;
+    }
+
+    public void save(String directory) throws IOException {
+        File temporary = new File(directory, MANIFEST_FILE + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(temporary))) {
+            writer.write("generation " + generation);
+            writer.newLine();
+            writer.write("next " + nextSegment);
+            writer.newLine();
+            for (int i = 0; i < names.size(); i++) {
+                writer.write(names.get(i) + " " + documentCounts.get(i));
+                writer.newLine();
+            }
+        }
+        Files.move(temporary.toPath(), new File(directory, MANIFEST_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // blocks until no other process or thread is changing the index's segments; closing the result releases it
+    public static Closeable lock(String directory) throws IOException {
+        writers.acquireUninterruptibly();
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.lock();
+        } catch (IOException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            writers.release();
+            throw e;
+        }
+        FileChannel locked = channel;
+        return () -> {
+            try {
+                locked.close();
+            } finally {
+                writers.release();
+            }
+        };
+    }
+
+    // incremented every time segments are added or replaced, so searchers can tell when to reopen
+    public long getGeneration() {
+        return generation;
+    }
+
+    // reserves a name for a segment about to be written; it only becomes live once added
+    public String newSegmentName() {
+        return String.format("segment-%06d", nextSegment++);
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+
+    public int getDocumentCount(int segment) {
+        return documentCounts.get(segment);
+    }
+
+    public void add(String name, int documentCount) {
+        names.add(name);
+        documentCounts.add(documentCount);
+        generation++;
+    }
+
+    // replaces a run of adjacent segments with the segment they were merged into, keeping the documents' order;
+    // returns false, changing nothing, if any of them is no longer live
+    public boolean replace(List<String> merged, String name, int documentCount) {
+        int start = names.indexOf(merged.get(0));
+        if (start == -1 || start + merged.size() > names.size() || !names.subList(start, start + merged.size()).equals(merged)) {
+            return false;
+        }
+        for (int i = 0; i < merged.size(); i++) {
+            names.remove(start);
+            documentCounts.remove(start);
+        }
+        names.add(start, name);
+        documentCounts.add(start, documentCount);
+        generation++;
+        return true;
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.*;
+import java.util.*;
+
+// Merges segments of an index built with --append into one, file by file, without reading back or re-tokenizing
+// their documents. The merged lexicon keeps the first segment's termids and gives each later segment's new terms
+// the next ones in that segment's termid order, which is the order indexing the segments' documents one after
+// another would give them, so the merged postings are those a re-index would write. Postings, positions, the
+// forward index and sentences are rewritten with those termids, each segment's docids following the documents
+// of the segments before it, and stored documents are copied still compressed. Positions, the forward index and
+// sentences are only written when every segment has them.
+public class SegmentMerger {
+    // writes the merged segment to the output directory and returns its number of documents
+    public static int merge(List<String> directories, String outputDirectoryPath) throws IOException {
+        File outputDirectory = new File(outputDirectoryPath);
+        int segmentCount = directories.size();
+        boolean positional = true;
+        boolean forward = true;
+        boolean sentences = true;
+        for (String directory : directories) {
+            positional &= PositionalIndex.exists(directory);
+            forward &= ForwardIndex.exists(directory);
+            sentences &= SentenceStore.exists(directory);
+        }
+
+        Map<String, Integer> lexicon = new HashMap<>();
+        int[][] termIdMaps = new int[segmentCount][];
+        try (BufferedWriter lexiconWriter = new BufferedWriter(new FileWriter(new File(outputDirectory, "lexicon.txt")))) {
+            for (int i = 0; i < segmentCount; i++) {
+                List<String> terms = readLines(new File(directories.get(i), "lexicon.txt"));
+                termIdMaps[i] = new int[terms.size() + 1];
+                for (int termId = 1; termId <= terms.size(); termId++) {
+                    String term = terms.get(termId - 1);
+                    Integer mergedTermId = lexicon.get(term);
+                    if (mergedTermId == null) {
+                        mergedTermId = lexicon.size() + 1;
+                        lexicon.put(term, mergedTermId);
+                        lexiconWriter.write(term);
+                        lexiconWriter.newLine();
+                    }
+                    termIdMaps[i][termId] = mergedTermId;
+                }
+            }
+        }
+        Lexicon.write(outputDirectoryPath, lexicon);
+
+        int[] docIdBases = new int[segmentCount];
+        int documentCount = 0;
+        for (int i = 0; i < segmentCount; i++) {
+            docIdBases[i] = documentCount;
+            documentCount += CollectionStatistics.load(directories.get(i)).getDocumentCount();
+        }
+        int[] documentLengths = new int[documentCount + 1];
+        long totalLength = 0;
+        try (BufferedWriter docnosWriter = new BufferedWriter(new FileWriter(new File(outputDirectory, "docnos.txt")));
+                BufferedWriter docLengthsWriter = new BufferedWriter(new FileWriter(new File(outputDirectory, "doc-lengths.txt")))) {
+            for (int i = 0; i < segmentCount; i++) {
+                for (String docno : readLines(new File(directories.get(i), "docnos.txt"))) {
+                    docnosWriter.write(docno);
+                    docnosWriter.newLine();
+                }
+                int docId = docIdBases[i];
+                for (String length : readLines(new File(directories.get(i), "doc-lengths.txt"))) {
+                    documentLengths[++docId] = Integer.parseInt(length);
+                    totalLength += documentLengths[docId];
+                    docLengthsWriter.write(length);
+                    docLengthsWriter.newLine();
+                }
+            }
+        }
+
+        DocumentStoreWriter documentStoreWriter = new DocumentStoreWriter(outputDirectory);
+        for (String directory : directories) {
+            documentStoreWriter.append(directory);
+        }
+        documentStoreWriter.close();
+
+        if (sentences) {
+            SentenceStoreWriter sentenceStoreWriter = new SentenceStoreWriter(outputDirectory);
+            for (int i = 0; i < segmentCount; i++) {
+                sentenceStoreWriter.append(directories.get(i), termIdMaps[i]);
+            }
+            sentenceStoreWriter.close();
+        }
+
+        if (forward) {
+            ForwardIndexWriter forwardIndexWriter = new ForwardIndexWriter(outputDirectory);
+            for (int i = 0; i < segmentCount; i++) {
+                ForwardIndex forwardIndex = new ForwardIndex(directories.get(i));
+                for (int docId = 1; docId <= documentCount(docIdBases, documentCount, i); docId++) {
+                    int count = forwardIndex.getTermCount(docId);
+                    int[] termIds = new int[count];
+                    int[] tfs = new int[count];
+                    forwardIndex.getTerms(docId, termIds, tfs);
+                    for (int j = 0; j < count; j++) {
+                        termIds[j] = termIdMaps[i][termIds[j]];
+                    }
+                    forwardIndexWriter.add(termIds, tfs);
+                }
+            }
+            forwardIndexWriter.close();
+        }
+
+        InvertedIndex[] indexes = new InvertedIndex[segmentCount];
+        PositionalIndex[] positionalIndexes = positional ? new PositionalIndex[segmentCount] : null;
+        for (int i = 0; i < segmentCount; i++) {
+            indexes[i] = new InvertedIndex(directories.get(i));
+            if (positional) {
+                positionalIndexes[i] = new PositionalIndex(directories.get(i));
+            }
+        }
+        PostingsWriter.merge(outputDirectory, indexes, positionalIndexes, termIdMaps, docIdBases, documentLengths, lexicon.size());
+
+        new CollectionStatistics(documentCount, totalLength).save(outputDirectoryPath);
+        return documentCount;
+    }
+
+    // the number of documents in segment i
+    private static int documentCount(int[] docIdBases, int documentCount, int i) {
+        return (i + 1 < docIdBases.length ? docIdBases[i + 1] : documentCount) - docIdBases[i];
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
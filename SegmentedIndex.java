@@ -0,0 +1,416 @@
+import java.io.*;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Searches every shard of an index directory as one collection: the live segments of an index built with
+// --append, the shards of one built with --shards (some of which may be served by other processes), or the
+// directory itself for a plain index. Each shard is scored with the document count, average length and document
+// frequencies of the whole collection, so a document's BM25 score does not depend on which shard it is in, and
+// the shards' top k are merged. Documents are numbered across shards in the order they are listed.
+public class SegmentedIndex implements Shard {
+    // lists the shards of an index built with --shards, one per line: a directory relative to the index, or the
+    // http://host:port address of a SearchServer serving the shard
+    public static final String SHARDS_FILE = "shards.txt";
+    private static final int OPEN_ATTEMPTS = 3;
+
+    // the shards of a query are searched in parallel; its threads are daemons, so it does not keep programs running
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private Shard[] shards;
+    private int[] docIdBases;
+    private CollectionStatistics statistics;
+    private long generation;
+    private boolean appended;
+
+    public SegmentedIndex(String directory) throws IOException {
+        // a merge can delete segments between reading the manifest and opening them; the manifest it committed
+        // first then lists their replacement
+        for (int attempt = 1; ; attempt++) {
+            try {
+                open(directory);
+                return;
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                if (attempt == OPEN_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void open(String directory) throws IOException {
+        SegmentManifest manifest = SegmentManifest.load(directory);
+        generation = manifest.getGeneration();
+        List<String> locations = new ArrayList<>();
+        File shardsFile = new File(directory, SHARDS_FILE);
+        if (shardsFile.exists()) {
+            BufferedReader reader = new BufferedReader(new FileReader(shardsFile));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    locations.add(line.trim());
+                }
+            }
+            reader.close();
+        } else if (SegmentManifest.exists(directory)) {
+            locations.addAll(manifest.getNames());
+            appended = true;
+        }
+
+        if (locations.isEmpty()) {
+            shards = new Shard[] {new Segment(directory)};
+        } else {
+            shards = new Shard[locations.size()];
+            for (int i = 0; i < shards.length; i++) {
+                String location = locations.get(i);
+                if (location.startsWith("http://")) {
+                    shards[i] = new RemoteShard(location);
+                } else {
+                    shards[i] = new Segment(new File(directory, location).getPath());
+                }
+            }
+        }
+
+        docIdBases = new int[shards.length];
+        int documentCount = 0;
+        long totalLength = 0;
+        for (int i = 0; i < shards.length; i++) {
+            docIdBases[i] = documentCount;
+            documentCount += shards[i].getStatistics().getDocumentCount();
+            totalLength += shards[i].getStatistics().getTotalLength();
+        }
+        statistics = new CollectionStatistics(documentCount, totalLength);
+    }
+
+    // changes whenever segments are added to or merged in the directory; 0 for an index that is not segmented
+    public static long getGeneration(String directory) throws IOException {
+        return SegmentManifest.load(directory).getGeneration();
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public Shard[] getShards() {
+        return shards;
+    }
+
+    @Override
+    public CollectionStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public boolean hasPositions() {
+        for (Shard shard : shards) {
+            if (!shard.hasPositions()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Each segment written with --append is quantized on its own scale and with its own statistics, so impacts from
+    // different segments cannot be added up, and an index of several segments is searched score-at-a-time only once
+    // they are merged into one. The shards written with --shards are quantized together and can.
+    @Override
+    public boolean hasImpacts() {
+        if (appended && shards.length > 1) {
+            return false;
+        }
+        for (Shard shard : shards) {
+            if (!shard.hasImpacts()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean hasForwardIndex() {
+        for (Shard shard : shards) {
+            if (!shard.hasForwardIndex()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // applies to the local segments; a shard served by another process uses that server's --budget
+    public void setImpactBudget(int impactBudget) {
+        for (Segment segment : getSegments()) {
+            segment.setImpactBudget(impactBudget);
+        }
+    }
+
+    // each local segment gets an equal share of the memory for each cache
+    public void setCaches(long resultCacheSize, long postingsCacheSize) {
+        List<Segment> segments = getSegments();
+        for (Segment segment : segments) {
+            segment.setCaches(resultCacheSize / segments.size(), postingsCacheSize / segments.size());
+        }
+    }
+
+    public List<LruCache<?, ?>> getResultCaches() {
+        List<LruCache<?, ?>> caches = new ArrayList<>();
+        for (Segment segment : getSegments()) {
+            caches.addAll(segment.getResultCaches());
+        }
+        return caches;
+    }
+
+    public List<LruCache<?, ?>> getPostingsCaches() {
+        List<LruCache<?, ?>> caches = new ArrayList<>();
+        for (Segment segment : getSegments()) {
+            if (segment.getIndex().getPostingsCache() != null) {
+                caches.add(segment.getIndex().getPostingsCache());
+            }
+        }
+        return caches;
+    }
+
+    private List<Segment> getSegments() {
+        List<Segment> segments = new ArrayList<>();
+        for (Shard shard : shards) {
+            if (shard instanceof Segment) {
+                segments.add((Segment) shard);
+            }
+        }
+        return segments;
+    }
+
+    // true when a word of the text occurs in the collection
+    public boolean hasTerms(String text) throws IOException {
+        return !getDocumentFrequencies(text).isEmpty();
+    }
+
+    @Override
+    public Map<String, Integer> getDocumentFrequencies(String text) throws IOException {
+        if (shards.length == 1) {
+            return shards[0].getDocumentFrequencies(text);
+        }
+        Map<String, Integer> documentFrequencies = new HashMap<>();
+        for (Map<String, Integer> shardFrequencies : scatter(i -> shards[i].getDocumentFrequencies(text))) {
+            for (Map.Entry<String, Integer> entry : shardFrequencies.entrySet()) {
+                documentFrequencies.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+        }
+        return documentFrequencies;
+    }
+
+    // throws IllegalStateException for phrases or proximity when a shard has no positions, and for score-at-a-time
+    // queries when the index has no impacts to search
+    public Result[] search(String text, int k, QueryEngine.Algorithm algorithm, boolean proximity) throws IOException {
+        long startTime = System.nanoTime();
+        Result[] results;
+        if (shards.length == 1) {
+            results = shards[0].search(text, null, statistics, k, algorithm, proximity);
+        } else {
+            results = search(text, getDocumentFrequencies(text), statistics, k, algorithm, proximity);
+        }
+        Metrics.QUERY.recordSince(startTime);
+        Metrics.QUERIES.increment();
+        return results;
+    }
+
+    // Scatters the query to every shard and gathers their top k into the collection's. Proximity reranks the
+    // collection's top BM25 candidates, as an unsharded index would, so those are gathered first and each shard
+    // then reranks its share of them.
+    @Override
+    public Result[] search(String text, Map<String, Integer> documentFrequencies, CollectionStatistics statistics, int k, QueryEngine.Algorithm algorithm, boolean proximity) throws IOException {
+        if (shards.length == 1) {
+            return shards[0].search(text, documentFrequencies, statistics, k, algorithm, proximity);
+        }
+        if (algorithm == QueryEngine.Algorithm.SAAT && !hasImpacts() && !BooleanQuery.isBoolean(text)) {
+            throw new IllegalStateException("score-at-a-time queries need an index built with --impacts, in a single segment if built with --append");
+        }
+        Map<String, Integer> frequencies = documentFrequencies != null ? documentFrequencies : getDocumentFrequencies(text);
+        if (!proximity) {
+            return gather(scatter(i -> shards[i].search(text, frequencies, statistics, k, algorithm, false)), k);
+        }
+        if (!hasPositions()) {
+            throw new IllegalStateException("phrase and proximity queries need an index built with --positions");
+        }
+        int depth = Math.max(k, QueryEngine.PROXIMITY_CANDIDATES);
+        Result[] candidates = gather(scatter(i -> shards[i].search(text, frequencies, statistics, depth, algorithm, false)), depth);
+        return gather(rerank(text, frequencies, statistics, candidates), k);
+    }
+
+    @Override
+    public Result[] rerankByProximity(String text, Map<String, Integer> documentFrequencies, CollectionStatistics statistics, Result[] candidates) throws IOException {
+        if (shards.length == 1) {
+            return shards[0].rerankByProximity(text, documentFrequencies, statistics, candidates);
+        }
+        Map<String, Integer> frequencies = documentFrequencies != null ? documentFrequencies : getDocumentFrequencies(text);
+        return gather(rerank(text, frequencies, statistics, candidates), candidates.length);
+    }
+
+    // hands each shard the candidates it holds, with its own docids, and returns the reranked results per shard
+    private List<Result[]> rerank(String text, Map<String, Integer> documentFrequencies, CollectionStatistics statistics, Result[] candidates) throws IOException {
+        List<List<Result>> shardCandidates = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            shardCandidates.add(new ArrayList<>());
+        }
+        for (Result candidate : candidates) {
+            int i = shardOf(candidate.getDocId());
+            shardCandidates.get(i).add(new Result(candidate.getId(), candidate.getScore(), candidate.getDocId() - docIdBases[i]));
+        }
+        return scatter(i -> shardCandidates.get(i).isEmpty() ? new Result[0]
+            : shards[i].rerankByProximity(text, documentFrequencies, statistics, shardCandidates.get(i).toArray(new Result[0])));
+    }
+
+    // merges the shards' results, numbering their documents as this index does, and keeps the best k
+    private Result[] gather(List<Result[]> shardResults, int k) {
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            for (Result result : shardResults.get(i)) {
+                results.add(new Result(result.getId(), result.getScore(), docIdBases[i] + result.getDocId()));
+            }
+        }
+        Collections.sort(results);
+        return results.subList(0, Math.min(k, results.size())).toArray(new Result[0]);
+    }
+
+    private interface ShardCall<T> {
+        T call(int shard) throws IOException;
+    }
+
+    // runs the call for every shard on the pool and returns their answers in shard order
+    private <T> List<T> scatter(ShardCall<T> call) throws IOException {
+        List<Callable<T>> tasks = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            int shard = i;
+            tasks.add(() -> call.call(shard));
+        }
+        List<T> answers = new ArrayList<>();
+        for (Future<T> answer : pool.invokeAll(tasks)) {
+            try {
+                answers.add(answer.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                // a task's exception is rethrown in this thread as a copy that wraps the original; report the original
+                if (cause.getCause() != null && cause.getCause().getClass() == cause.getClass()) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+        return answers;
+    }
+
+    // The text of a query expanded with terms from its top documents (see QueryExpansion), to search in its
+    // place; Boolean queries are searched as written, since added words would change which documents they match.
+    // Throws IllegalStateException when a shard has no forward index.
+    public String expand(String text, QueryExpansion expansion, QueryEngine.Algorithm algorithm) throws IOException {
+        if (BooleanQuery.isBoolean(text)) {
+            return text;
+        }
+        long startTime = System.nanoTime();
+        Result[] feedback = search(text, null, statistics, expansion.getFeedbackDocuments(), algorithm, false);
+        String expanded = expansion.expand(this, text, feedback);
+        Metrics.QUERY_EXPANSION.recordSince(startTime);
+        return expanded;
+    }
+
+    // each shard sums the terms of its share of the documents, all of them so that the sums added up here are
+    // those of an unsharded index, and the top count of the totals are kept
+    @Override
+    public Map<String, Double> getFeedbackTerms(int[] docIds, double[] weights, int count) throws IOException {
+        if (shards.length == 1) {
+            return shards[0].getFeedbackTerms(docIds, weights, count);
+        }
+        List<List<Integer>> shardDocuments = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            shardDocuments.add(new ArrayList<>());
+        }
+        for (int i = 0; i < docIds.length; i++) {
+            shardDocuments.get(shardOf(docIds[i])).add(i);
+        }
+        List<Map<String, Double>> shardTerms = scatter(i -> {
+            List<Integer> documents = shardDocuments.get(i);
+            if (documents.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            int[] shardDocIds = new int[documents.size()];
+            double[] shardWeights = new double[documents.size()];
+            for (int j = 0; j < shardDocIds.length; j++) {
+                shardDocIds[j] = docIds[documents.get(j)] - docIdBases[i];
+                shardWeights[j] = weights[documents.get(j)];
+            }
+            return shards[i].getFeedbackTerms(shardDocIds, shardWeights, Integer.MAX_VALUE);
+        });
+        Map<String, Double> sums = new HashMap<>();
+        for (Map<String, Double> terms : shardTerms) {
+            for (Map.Entry<String, Double> term : terms.entrySet()) {
+                sums.merge(term.getKey(), term.getValue(), Double::sum);
+            }
+        }
+        return QueryExpansion.top(sums, count);
+    }
+
+    @Override
+    public String generateSnippet(int docId, String text) throws IOException {
+        int i = shardOf(docId);
+        return shards[i].generateSnippet(docId - docIdBases[i], text);
+    }
+
+    @Override
+    public int getDocId(String docno) throws IOException {
+        for (int i = 0; i < shards.length; i++) {
+            int docId = shards[i].getDocId(docno);
+            if (docId != 0) {
+                return docIdBases[i] + docId;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String getDocno(int docId) throws IOException {
+        int i = shardOf(docId);
+        return shards[i].getDocno(docId - docIdBases[i]);
+    }
+
+    @Override
+    public String getDocument(int docId) throws IOException {
+        int i = shardOf(docId);
+        return shards[i].getDocument(docId - docIdBases[i]);
+    }
+
+    @Override
+    public String getHeadline(int docId) throws IOException {
+        int i = shardOf(docId);
+        return shards[i].getHeadline(docId - docIdBases[i]);
+    }
+
+    @Override
+    public String getDate(int docId) throws IOException {
+        int i = shardOf(docId);
+        return shards[i].getDate(docId - docIdBases[i]);
+    }
+
+    // the last shard whose first docid is at most docId; empty shards share their base with the next one
+    private int shardOf(int docId) {
+        int low = 0;
+        int high = docIdBases.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (docIdBases[middle] < docId) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,32 @@
+// A sentence a snippet can be made of: the section it is in (an index into SnippetGenerator.SECTIONS), its
+// text, and the number of the document's tokens before it and in it. Positions in the positional index also skip a
+// gap after each section, which TrecDocumentParser.position adds.
+public class Sentence {
+    private int section;
+    private String text;
+    private int position;
+    private int length;
+
+    public Sentence(int section, String text, int position, int length) {
+        this.section = section;
+        this.text = text;
+        this.position = position;
+        this.length = length;
+    }
+
+    public int getSection() {
+        return section;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
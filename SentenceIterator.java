@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Steps through the stored sentences of one document. Each sentence's termids are decoded into a buffer that is
+// reused from sentence to sentence; the texts are only inflated once getText() asks for one.
+public class SentenceIterator {
+    private ByteBuffer buffer;
+    private int count;
+    private int remaining;
+    private int textsStart;
+    private int textsLength;
+    private byte[] texts = new byte[4096];
+    private boolean inflated;
+    private int section;
+    private int length;
+    private int[] termIds = new int[64];
+    private int textOffset;
+    private int textLength;
+
+    // moves to the start of a document's sentences, which fill the buffer
+    public void reset(ByteBuffer buffer) {
+        this.buffer = buffer;
+        count = HelperFunctions.readVByte(buffer);
+        int sentencesLength = HelperFunctions.readVByte(buffer);
+        textsLength = HelperFunctions.readVByte(buffer);
+        textsStart = buffer.position() + sentencesLength;
+        inflated = false;
+        remaining = count;
+        textOffset = 0;
+        textLength = 0;
+    }
+
+    public boolean next() {
+        if (remaining == 0) {
+            return false;
+        }
+        remaining--;
+        section = buffer.get();
+        length = HelperFunctions.readVByte(buffer);
+        if (length > termIds.length) {
+            termIds = Arrays.copyOf(termIds, Math.max(length, termIds.length * 2));
+        }
+        for (int i = 0; i < length; i++) {
+            termIds[i] = HelperFunctions.readVByte(buffer);
+        }
+        textOffset += textLength;
+        textLength = HelperFunctions.readVByte(buffer);
+        return true;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getSection() {
+        return section;
+    }
+
+    // the number of termids in getTermIds() that belong to this sentence
+    public int getLength() {
+        return length;
+    }
+
+    public int[] getTermIds() {
+        return termIds;
+    }
+
+    public String getText() {
+        if (!inflated) {
+            inflateTexts();
+        }
+        return new String(texts, textOffset, textLength, StandardCharsets.UTF_8);
+    }
+
+    // the document's texts are inflated whole the first time one is asked for, and kept until the next reset
+    private void inflateTexts() {
+        if (texts.length < textsLength) {
+            texts = new byte[Math.max(textsLength, texts.length * 2)];
+        }
+        ByteBuffer compressed = buffer.duplicate();
+        compressed.position(textsStart);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < textsLength && !inflater.finished() && !inflater.needsInput()) {
+                length += inflater.inflate(texts, length, textsLength - length);
+            }
+            if (length < textsLength) {
+                throw new IllegalStateException("truncated sentence texts");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupt sentence texts");
+        } finally {
+            inflater.end();
+        }
+        inflated = true;
+    }
+}
@@ -0,0 +1,40 @@
+import java.io.*;
+
+// The snippet sentences of every document, split and tokenized by IndexEngine so snippets are scored without
+// reading or tokenizing the document. sentences.bin holds, per document, the sentence count and the lengths of
+// the two parts that follow: per sentence, its section, its variable-byte termids and the length of its text,
+// then the texts of all its sentences as one Deflate stream. sentences-index.bin holds the start of each
+// document's sentences (8 bytes per docid).
+public class SentenceStore {
+    public static final String SENTENCES_FILE = "sentences.bin";
+    public static final String INDEX_FILE = "sentences-index.bin";
+
+    private MappedFile sentences;
+    private MappedFile index;
+    private int documentCount;
+
+    public SentenceStore(String directory) throws IOException {
+        sentences = new MappedFile(new File(directory, SENTENCES_FILE));
+        index = new MappedFile(new File(directory, INDEX_FILE));
+        documentCount = (int) (index.size() / 8);
+    }
+
+    public static boolean exists(String directory) {
+        return new File(directory, SENTENCES_FILE).exists() && new File(directory, INDEX_FILE).exists();
+    }
+
+    public SentenceIterator getSentences(int docId) {
+        return getSentences(docId, null);
+    }
+
+    // repositions an iterator previously returned by this store at the start of another document's sentences
+    public SentenceIterator getSentences(int docId, SentenceIterator sentenceIterator) {
+        if (sentenceIterator == null) {
+            sentenceIterator = new SentenceIterator();
+        }
+        long start = index.getLong((docId - 1) * 8L);
+        long end = docId < documentCount ? index.getLong(docId * 8L) : sentences.size();
+        sentenceIterator.reset(sentences.slice(start, end));
+        return sentenceIterator;
+    }
+}
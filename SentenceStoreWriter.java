@@ -0,0 +1,115 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+public class SentenceStoreWriter {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private OutputStream sentencesOut;
+    private DataOutputStream indexOut;
+    private ByteArrayOutputStream sentences = new ByteArrayOutputStream();
+    private ByteArrayOutputStream texts = new ByteArrayOutputStream();
+    private ByteArrayOutputStream header = new ByteArrayOutputStream();
+    private Deflater deflater = new Deflater();
+    private byte[] compressed = new byte[1 << 16];
+    private long offset = 0;
+
+    public SentenceStoreWriter(File directory) throws IOException {
+        sentencesOut = new BufferedOutputStream(new FileOutputStream(new File(directory, SentenceStore.SENTENCES_FILE)), BUFFER_SIZE);
+        indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, SentenceStore.INDEX_FILE)), BUFFER_SIZE));
+    }
+
+    // tokenTerms gives the document-local term of each token position and termIds the termid of each local term
+    public void add(List<Sentence> documentSentences, int[] tokenTerms, int[] termIds) throws IOException {
+        sentences.reset();
+        texts.reset();
+        for (Sentence sentence : documentSentences) {
+            int start = Math.min(sentence.getPosition(), tokenTerms.length);
+            int end = Math.min(sentence.getPosition() + sentence.getLength(), tokenTerms.length);
+            sentences.write(sentence.getSection());
+            HelperFunctions.writeVByte(sentences, end - start);
+            for (int position = start; position < end; position++) {
+                HelperFunctions.writeVByte(sentences, termIds[tokenTerms[position]]);
+            }
+            byte[] text = sentence.getText().getBytes(StandardCharsets.UTF_8);
+            HelperFunctions.writeVByte(sentences, text.length);
+            texts.write(text);
+        }
+
+        deflater.reset();
+        deflater.setInput(texts.toByteArray());
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+
+        header.reset();
+        HelperFunctions.writeVByte(header, documentSentences.size());
+        HelperFunctions.writeVByte(header, sentences.size());
+        HelperFunctions.writeVByte(header, texts.size());
+        indexOut.writeLong(offset);
+        header.writeTo(sentencesOut);
+        sentences.writeTo(sentencesOut);
+        sentencesOut.write(compressed, 0, compressedLength);
+        offset += header.size() + sentences.size() + compressedLength;
+    }
+
+    // appends the sentences of every document of another store, with each of its termids t replaced by
+    // termIdMap[t]; their texts are copied still compressed
+    public void append(String directory, int[] termIdMap) throws IOException {
+        File sentencesFile = new File(directory, SentenceStore.SENTENCES_FILE);
+        File indexFile = new File(directory, SentenceStore.INDEX_FILE);
+        long[] offsets = new long[(int) (indexFile.length() / 8) + 1];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), BUFFER_SIZE))) {
+            for (int i = 0; i < offsets.length - 1; i++) {
+                offsets[i] = in.readLong();
+            }
+        }
+        offsets[offsets.length - 1] = sentencesFile.length();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sentencesFile), BUFFER_SIZE))) {
+            for (int i = 0; i < offsets.length - 1; i++) {
+                byte[] document = new byte[(int) (offsets[i + 1] - offsets[i])];
+                in.readFully(document);
+                ByteBuffer buffer = ByteBuffer.wrap(document);
+                int sentenceCount = HelperFunctions.readVByte(buffer);
+                HelperFunctions.readVByte(buffer);
+                int textsLength = HelperFunctions.readVByte(buffer);
+
+                sentences.reset();
+                for (int sentence = 0; sentence < sentenceCount; sentence++) {
+                    sentences.write(buffer.get());
+                    int length = HelperFunctions.readVByte(buffer);
+                    HelperFunctions.writeVByte(sentences, length);
+                    for (int position = 0; position < length; position++) {
+                        HelperFunctions.writeVByte(sentences, termIdMap[HelperFunctions.readVByte(buffer)]);
+                    }
+                    HelperFunctions.writeVByte(sentences, HelperFunctions.readVByte(buffer));
+                }
+
+                header.reset();
+                HelperFunctions.writeVByte(header, sentenceCount);
+                HelperFunctions.writeVByte(header, sentences.size());
+                HelperFunctions.writeVByte(header, textsLength);
+                indexOut.writeLong(offset);
+                header.writeTo(sentencesOut);
+                sentences.writeTo(sentencesOut);
+                sentencesOut.write(document, buffer.position(), document.length - buffer.position());
+                offset += header.size() + sentences.size() + document.length - buffer.position();
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        deflater.end();
+        sentencesOut.close();
+        indexOut.close();
+    }
+}
@@ -0,0 +1,48 @@
+import java.io.IOException;
+import java.util.Map;
+
+// A part of the collection that SegmentedIndex searches: a segment on local disk, a whole SegmentedIndex, or a
+// shard served by another process over HTTP. Docids are the shard's own, numbered from 1.
+public interface Shard {
+    // the number and total length of the shard's own documents
+    CollectionStatistics getStatistics();
+
+    boolean hasPositions();
+
+    // true when the shard has the impacts that Algorithm.SAAT searches
+    boolean hasImpacts();
+
+    // true when the shard has the forward index that query expansion reads feedback documents' terms from
+    boolean hasForwardIndex();
+
+    // the document frequency in this shard of each word of the text that occurs in it
+    Map<String, Integer> getDocumentFrequencies(String text) throws IOException;
+
+    // the shard's top k for the text, weighting terms by the given document frequencies and scoring BM25 with the
+    // given collection statistics, so that every shard scores a document as the whole collection would; a null
+    // documentFrequencies uses the shard's own. Throws IllegalStateException for phrases or proximity when the
+    // shard has no positions.
+    Result[] search(String text, Map<String, Integer> documentFrequencies, CollectionStatistics statistics, int k, QueryEngine.Algorithm algorithm, boolean proximity) throws IOException;
+
+    // adds the proximity bonus to BM25 results this shard returned for the text, with the same statistics, and
+    // returns them all reordered; a collection reranks its overall top candidates this way, shard by shard
+    Result[] rerankByProximity(String text, Map<String, Integer> documentFrequencies, CollectionStatistics statistics, Result[] candidates) throws IOException;
+
+    // the count terms with the largest sum over the documents of the term's frequency in each, divided by its length
+    // and times its weight, with their sums, largest first; the documents of a query's pseudo-relevance feedback.
+    // Throws IllegalStateException when the shard has no forward index.
+    Map<String, Double> getFeedbackTerms(int[] docIds, double[] weights, int count) throws IOException;
+
+    String generateSnippet(int docId, String text) throws IOException;
+
+    // 0 if no document of the shard has the docno
+    int getDocId(String docno) throws IOException;
+
+    String getDocno(int docId) throws IOException;
+
+    String getDocument(int docId) throws IOException;
+
+    String getHeadline(int docId) throws IOException;
+
+    String getDate(int docId) throws IOException;
+}
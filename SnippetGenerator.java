@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.util.*;
+
+public class SnippetGenerator {
+    public static final String[] SECTIONS = {"HEADLINE", "TEXT", "GRAPHIC"};
+    public static final int HEADLINE = 0;
+    public static final int TEXT = 1;
+
+    // uses the sentences the indexer stored when the index has them, and otherwise splits the stored document
+    public static String generateSnippet(int docId, int[] queryTokenIds, Lexicon lexicon, QueryEngine queryEngine, DocumentStore documentStore) throws IOException {
+        if (documentStore.getSentenceStore() != null) {
+            return generateSnippet(documentStore.getSentenceStore(), docId, queryTokenIds);
+        }
+        return generateSnippet(documentStore.getDocument(docId), docId, queryTokenIds, lexicon, queryEngine);
+    }
+
+    // scores the sentences the indexer stored for the document, so neither the document nor its sentences are
+    // read beyond the termids, apart from the text of the sentences that make the snippet
+    public static String generateSnippet(SentenceStore sentenceStore, int docId, int[] queryTokenIds) {
+        SentenceIterator sentences = sentenceStore.getSentences(docId);
+        double[] scores = new double[sentences.getCount()];
+        int l_score = 3;
+        for (int i = 0; sentences.next(); i++) {
+            if (sentences.getSection() == TEXT && l_score > 0) {
+                l_score--;
+            }
+            int h_score = sentences.getSection() == HEADLINE ? 1 : 0;
+            scores[i] = calculateSentenceScore(sentences.getTermIds(), sentences.getLength(), queryTokenIds, h_score, l_score);
+        }
+
+        String[] texts = new String[scores.length];
+        boolean[] candidates = candidates(scores);
+        sentences = sentenceStore.getSentences(docId, sentences);
+        for (int i = 0; sentences.next(); i++) {
+            if (candidates[i]) {
+                texts[i] = sentences.getText();
+            }
+        }
+        return summarize(texts, scores, candidates);
+    }
+
+    // scores sentences from the index's stored positions when it has them, instead of tokenizing every sentence
+    public static String generateSnippet(String document, int docId, int[] queryTokenIds, Lexicon lexicon, QueryEngine queryEngine) {
+        int[] termsAtPositions = queryEngine.getTermsAtPositions(docId, queryTokenIds);
+        return generateSnippet(document, queryTokenIds, lexicon, termsAtPositions);
+    }
+
+    public static String generateSnippet(String document, int[] queryTokenIds, Lexicon lexicon) {
+        return generateSnippet(document, queryTokenIds, lexicon, null);
+    }
+
+    // termsAtPositions holds the query term at each position of the document (0 elsewhere), numbered as
+    // TrecDocumentParser.position numbers them
+    public static String generateSnippet(String document, int[] queryTokenIds, int[] termsAtPositions) {
+        return generateSnippet(document, queryTokenIds, null, termsAtPositions);
+    }
+
+    private static String generateSnippet(String document, int[] queryTokenIds, Lexicon lexicon, int[] termsAtPositions) {
+        List<Sentence> sentences = TrecDocumentParser.splitSentences(document);
+        String[] texts = new String[sentences.size()];
+        double[] scores = new double[sentences.size()];
+        int l_score = 3;
+        for (int i = 0; i < texts.length; i++) {
+            Sentence sentence = sentences.get(i);
+            int[] tokenIds;
+            if (termsAtPositions != null) {
+                int position = TrecDocumentParser.position(sentence.getSection(), sentence.getPosition());
+                int start = Math.min(position, termsAtPositions.length);
+                tokenIds = Arrays.copyOfRange(termsAtPositions, start, Math.min(position + sentence.getLength(), termsAtPositions.length));
+            } else {
+                String[] tokens = HelperFunctions.tokenizeText(sentence.getText());
+                tokenIds = HelperFunctions.convertTokensToIds(tokens, lexicon);
+            }
+
+            int h_score = 0;
+            if (sentence.getSection() == HEADLINE) {
+                h_score++;
+            }
+            if (sentence.getSection() == TEXT && l_score > 0) {
+                l_score--;
+            }
+
+            texts[i] = sentence.getText();
+            scores[i] = calculateSentenceScore(tokenIds, queryTokenIds, h_score, l_score);
+        }
+
+        boolean[] candidates = new boolean[texts.length];
+        Arrays.fill(candidates, true);
+        return summarize(texts, scores, candidates);
+    }
+
+    // Result orders sentences by score and then by text, so only the sentences scoring at least as much as the
+    // second best can be among the two chosen; their texts are the only ones needed
+    private static boolean[] candidates(double[] scores) {
+        boolean[] candidates = new boolean[scores.length];
+        if (scores.length == 0) {
+            return candidates;
+        }
+        double[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        double cutoff = sorted[Math.max(0, sorted.length - 2)];
+        for (int i = 0; i < scores.length; i++) {
+            candidates[i] = scores[i] >= cutoff;
+        }
+        return candidates;
+    }
+
+    private static String summarize(String[] texts, double[] scores, boolean[] candidates) {
+        PriorityQueue<Result> pq = new PriorityQueue<>();
+        for (int i = 0; i < texts.length; i++) {
+            if (candidates[i]) {
+                pq.add(new Result(texts[i], scores[i]));
+            }
+        }
+
+        String summary = "";
+        int it = 1;
+        while (!pq.isEmpty() && it < 3) {
+            Result result = pq.remove();
+            summary += (result.getId() + " ");
+            it++;
+        }
+
+        return summary;
+    }
+
+    public static double calculateSentenceScore(int[] sentenceTokenIds, int[] queryTokenIds, int h_score, int l_score) {
+        return calculateSentenceScore(sentenceTokenIds, sentenceTokenIds.length, queryTokenIds, h_score, l_score);
+    }
+
+    // scores the first length tokens of sentenceTokenIds; queries are a handful of terms, so membership is a scan
+    // of queryTokenIds and a term counts as seen at the first index it appears at
+    public static double calculateSentenceScore(int[] sentenceTokenIds, int length, int[] queryTokenIds, int h_score, int l_score) {
+        int h = h_score;
+        int l = l_score;
+
+        int c = 0;
+        int d = 0;
+        int k = 0;
+        int currentContiguousRun = 0;
+        boolean[] seen = new boolean[queryTokenIds.length];
+        for (int i = 0; i < length; i++) {
+            int query = indexOf(queryTokenIds, sentenceTokenIds[i]);
+            if (query != -1) {
+                c++;
+
+                if (!seen[query]) {
+                    d++;
+                }
+                seen[query] = true;
+
+                currentContiguousRun++;
+                if (currentContiguousRun > k) {
+                    k = currentContiguousRun;
+                }
+            } else {
+                currentContiguousRun = 0;
+            }
+        }
+
+        return h*1 + l*2 + c*1.5 + d*3 + k*2.5;
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.Arrays;
+
+public class TopKHeap {
+    private Document[] documents;
+    private int[] docIds;
+    private double[] scores;
+    private int size = 0;
+    private int capacity = 0;
+
+    public TopKHeap(Document[] documents) {
+        this.documents = documents;
+        this.docIds = new int[16];
+        this.scores = new double[16];
+    }
+
+    public void reset(int k) {
+        if (k > docIds.length) {
+            docIds = new int[k];
+            scores = new double[k];
+        }
+        capacity = k;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public double getThreshold() {
+        return isFull() ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    // ties are broken by docno so the heap agrees with Result.compareTo
+    private boolean worse(int docIdA, double scoreA, int docIdB, double scoreB) {
+        if (scoreA != scoreB) {
+            return scoreA < scoreB;
+        }
+        return documents[docIdA - 1].getDocno().compareTo(documents[docIdB - 1].getDocno()) > 0;
+    }
+
+    public void add(int docId, double score) {
+        if (capacity == 0) {
+            return;
+        }
+        if (size < capacity) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(docId, score, docIds[parent], scores[parent])) {
+                    break;
+                }
+                docIds[i] = docIds[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            docIds[i] = docId;
+            scores[i] = score;
+        } else if (worse(docIds[0], scores[0], docId, score)) {
+            siftDown(docId, score);
+        }
+    }
+
+    private void siftDown(int docId, double score) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && worse(docIds[child + 1], scores[child + 1], docIds[child], scores[child])) {
+                child++;
+            }
+            if (!worse(docIds[child], scores[child], docId, score)) {
+                break;
+            }
+            docIds[i] = docIds[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        docIds[i] = docId;
+        scores[i] = score;
+    }
+
+    public Result[] toResults() {
+        Result[] results = new Result[size];
+        for (int i = 0; i < size; i++) {
+            results[i] = new Result(documents[docIds[i] - 1].getDocno(), scores[i], docIds[i]);
+        }
+        Arrays.sort(results);
+        return results;
+    }
+}
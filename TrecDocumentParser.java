@@ -0,0 +1,455 @@
+import java.io.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+public class TrecDocumentParser implements DocumentSource {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final char[] DOC_START = "<DOC>".toCharArray();
+    private static final char[] DOC_END = "</DOC>".toCharArray();
+    private static final String[] SECTIONS = {"HEADLINE", "TEXT", "GRAPHIC"};
+    // positions skip this many after each section, more than QueryEngine.PROXIMITY_WINDOW, so neither a phrase nor a
+    // pair of nearby terms can span the end of one section and the start of the next
+    public static final int SECTION_GAP = 16;
+    private static final DateTimeFormatter DOCNO_DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+    private static final ThreadLocal<Tokenizer> TOKENIZER = ThreadLocal.withInitial(Tokenizer::new);
+
+    private Reader reader;
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+    private boolean skipLineFeed = false;
+
+    public TrecDocumentParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    // scans the character stream once, copying each <DOC> ... </DOC> line range into the returned string a run of
+    // the buffer at a time; line endings are normalised to \n exactly as BufferedReader.readLine would
+    @Override
+    public String nextDocument() throws IOException {
+        StringBuilder document = null;
+        // the start of the part of the buffer not yet copied into the document
+        int copied = position;
+        int startMatched = 0;
+        int endMatched = 0;
+        boolean ended = false;
+
+        while (true) {
+            if (position == limit) {
+                if (document != null) {
+                    document.append(buffer, copied, position - copied);
+                }
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                copied = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    // a document cut off before its </DOC> is dropped, as the line-based reader did
+                    return ended ? document.append('\n').toString() : null;
+                }
+            }
+
+            char c = buffer[position++];
+            if (c == '\r') {
+                c = '\n';
+                skipLineFeed = true;
+                if (document != null) {
+                    document.append(buffer, copied, position - 1 - copied).append('\n');
+                    copied = position;
+                }
+            } else if (c == '\n' && skipLineFeed) {
+                skipLineFeed = false;
+                if (document != null) {
+                    document.append(buffer, copied, position - 1 - copied);
+                    copied = position;
+                }
+                continue;
+            } else {
+                skipLineFeed = false;
+            }
+
+            if (document == null) {
+                startMatched = c == DOC_START[startMatched] ? startMatched + 1 : (c == DOC_START[0] ? 1 : 0);
+                if (startMatched == DOC_START.length) {
+                    document = new StringBuilder(4096);
+                    document.append(DOC_START);
+                    copied = position;
+                }
+                continue;
+            }
+
+            if (ended) {
+                if (c == '\n') {
+                    return document.append(buffer, copied, position - copied).toString();
+                }
+                continue;
+            }
+
+            endMatched = c == DOC_END[endMatched] ? endMatched + 1 : (c == DOC_END[0] ? 1 : 0);
+            ended = endMatched == DOC_END.length;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    // the position of the token'th token of a document, which is in the section'th of HEADLINE, TEXT and GRAPHIC
+    public static int position(int section, int token) {
+        return token + section * SECTION_GAP;
+    }
+
+    // the number of positions a document of length tokens can have
+    public static int positionCount(int length) {
+        return position(SECTIONS.length - 1, length);
+    }
+
+    public static ParsedDocument parse(String document) {
+        return parse(document, false);
+    }
+
+    public static ParsedDocument parse(String document, boolean positions) {
+        String docNo = extractDocNo(document);
+        Tokenizer tokenizer = TOKENIZER.get();
+        tokenizer.tokenize(document);
+        return new ParsedDocument(docNo, document, extractHeadline(document), extractDate(docNo),
+            tokenizer.getTerms(document), tokenizer.getCounts(), tokenizer.getLength(), positions ? tokenizer.getPositions() : null,
+            tokenizer.getTokenTerms(), tokenizer.getSentences(document));
+    }
+
+    // the sentences a snippet can be made of, for a document that is not being indexed
+    public static List<Sentence> splitSentences(String document) {
+        Tokenizer tokenizer = TOKENIZER.get();
+        tokenizer.scan(document);
+        return tokenizer.getSentences(document);
+    }
+
+    private static String extractDocNo(String document) {
+        return document.substring(document.indexOf("<DOCNO>") + 7, document.indexOf("</DOCNO>")).trim();
+    }
+
+    private static LocalDate extractDate(String docNo) {
+        String dateString = docNo.substring(2, 4) + "/" + docNo.substring(4, 6) + "/19" + docNo.substring(6, 8);
+        return LocalDate.parse(dateString, DOCNO_DATE_FORMAT);
+    }
+
+    private static String extractHeadline(String document) {
+        int start = document.indexOf("<HEADLINE>");
+        if (start == -1) return "";
+        start = document.indexOf("<P>", start);
+        if (start == -1) return "";
+        start += 3;
+        int end = document.indexOf("</P>", start);
+        if (end == -1) return "";
+        String headline = document.substring(start, end).trim();
+        headline = headline.replace('\n', ' ');
+        return headline;
+    }
+
+    // Single pass over a document that records the span of every token inside <HEADLINE>, <TEXT> and <GRAPHIC>
+    // and counts distinct terms in a table keyed by those spans, so no string is built per token or per section.
+    // Tokens are counted headline first, then text, then graphic, which keeps termids in the order the original
+    // per-section regular expressions produced them; a token's position is its index in that same order, plus
+    // SECTION_GAP for each section before its own. The same pass records where each section starts and the . ! and ?
+    // that end its sentences, so sentences are cut and their tokens counted from the spans without another scan.
+    private static class Tokenizer {
+        private static final int MIN_SENTENCE_WORDS = 5;
+
+        private int[][] spanStarts = new int[SECTIONS.length][256];
+        private int[][] spanEnds = new int[SECTIONS.length][256];
+        private int[] spanCounts = new int[SECTIONS.length];
+        private int[][] sectionStarts = new int[SECTIONS.length][4];
+        private int[] sectionCounts = new int[SECTIONS.length];
+        private int[][] sentenceEnds = new int[SECTIONS.length][64];
+        private int[] sentenceEndCounts = new int[SECTIONS.length];
+        private StringBuilder sentence = new StringBuilder();
+
+        private int[] table = new int[1024];
+        private int[] termStarts = new int[256];
+        private int[] termLengths = new int[256];
+        private int[] termHashes = new int[256];
+        private int[] counts = new int[256];
+        private int[] tokenTerms = new int[256];
+        private int termCount;
+        private int length;
+
+        public void tokenize(String document) {
+            scan(document);
+            countTerms(document);
+        }
+
+        public void scan(String document) {
+            Arrays.fill(spanCounts, 0);
+            Arrays.fill(sectionCounts, 0);
+            Arrays.fill(sentenceEndCounts, 0);
+            int section = -1;
+            int tokenStart = -1;
+            int n = document.length();
+
+            for (int i = 0; i < n; i++) {
+                char c = document.charAt(i);
+                if (c == '<') {
+                    int close = tagEnd(document, i);
+                    if (close != -1) {
+                        if (tokenStart != -1) {
+                            addSpan(section, tokenStart, i);
+                            tokenStart = -1;
+                        }
+                        int tagSection = sectionOf(document, i, close);
+                        if (tagSection != -1) {
+                            section = document.charAt(i + 1) == '/' ? -1 : tagSection;
+                            if (section != -1) {
+                                sectionStarts[section] = add(sectionStarts[section], sectionCounts[section]++, i);
+                            }
+                        }
+                        i = close;
+                        continue;
+                    }
+                }
+                if (section == -1) {
+                    continue;
+                }
+                if (Character.isLetterOrDigit(Character.toLowerCase(c))) {
+                    if (tokenStart == -1) {
+                        tokenStart = i;
+                    }
+                } else {
+                    if (tokenStart != -1) {
+                        addSpan(section, tokenStart, i);
+                        tokenStart = -1;
+                    }
+                    if (c == '.' || c == '!' || c == '?') {
+                        sentenceEnds[section] = add(sentenceEnds[section], sentenceEndCounts[section]++, i);
+                    }
+                }
+            }
+            if (tokenStart != -1) {
+                addSpan(section, tokenStart, n);
+            }
+        }
+
+        // tags never span lines, matching the "<.*?>" pattern used to strip them
+        private static int tagEnd(String document, int start) {
+            for (int i = start + 1; i < document.length(); i++) {
+                char c = document.charAt(i);
+                if (c == '>') {
+                    return i;
+                }
+                if (c == '\n') {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        private static int sectionOf(String document, int start, int end) {
+            int nameStart = document.charAt(start + 1) == '/' ? start + 2 : start + 1;
+            for (int s = 0; s < SECTIONS.length; s++) {
+                String name = SECTIONS[s];
+                if (end - nameStart == name.length() && document.regionMatches(nameStart, name, 0, name.length())) {
+                    return s;
+                }
+            }
+            return -1;
+        }
+
+        private void addSpan(int section, int start, int end) {
+            int count = spanCounts[section];
+            if (count == spanStarts[section].length) {
+                spanStarts[section] = Arrays.copyOf(spanStarts[section], count * 2);
+                spanEnds[section] = Arrays.copyOf(spanEnds[section], count * 2);
+            }
+            spanStarts[section][count] = start;
+            spanEnds[section][count] = end;
+            spanCounts[section]++;
+        }
+
+        private static int[] add(int[] values, int count, int value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count] = value;
+            return values;
+        }
+
+        // Each section is split after every . ! or ?, and each sentence of at least five words is kept with the
+        // number of tokens before it and in it. Its text has tags replaced by a space, whitespace runs by one space
+        // and is trimmed, as the regular expressions this used to be written with left it.
+        public List<Sentence> getSentences(String document) {
+            List<Sentence> sentences = new ArrayList<>();
+            int position = 0;
+            for (int s = 0; s < SECTIONS.length; s++) {
+                int token = 0;
+                int end = 0;
+                for (int section = 0; section < sectionCounts[s]; section++) {
+                    int next = section + 1 < sectionCounts[s] ? sectionStarts[s][section + 1] : document.length();
+                    int sentenceStart = sectionStarts[s][section];
+                    while (end < sentenceEndCounts[s] && sentenceEnds[s][end] < next) {
+                        int sentenceEnd = sentenceEnds[s][end++] + 1;
+                        while (token < spanCounts[s] && spanStarts[s][token] < sentenceStart) {
+                            token++;
+                        }
+                        int first = token;
+                        while (token < spanCounts[s] && spanStarts[s][token] < sentenceEnd) {
+                            token++;
+                        }
+                        String text = sentenceText(document, sentenceStart, sentenceEnd);
+                        if (wordCount(text) >= MIN_SENTENCE_WORDS) {
+                            sentences.add(new Sentence(s, text, position + first, token - first));
+                        }
+                        sentenceStart = sentenceEnd;
+                    }
+                }
+                position += spanCounts[s];
+            }
+            return sentences;
+        }
+
+        private String sentenceText(String document, int start, int end) {
+            sentence.setLength(0);
+            boolean inWhitespace = false;
+            for (int i = start; i < end; i++) {
+                char c = document.charAt(i);
+                if (c == '<') {
+                    int close = tagEnd(document, i);
+                    if (close != -1 && close < end) {
+                        sentence.append(' ');
+                        inWhitespace = false;
+                        i = close;
+                        continue;
+                    }
+                }
+                boolean whitespace = c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+                if (!whitespace) {
+                    sentence.append(c);
+                } else if (!inWhitespace) {
+                    sentence.append(' ');
+                }
+                inWhitespace = whitespace;
+            }
+            return sentence.toString().trim();
+        }
+
+        // words are what separates single spaces, tags having left a space each
+        private static int wordCount(String text) {
+            int count = 1;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == ' ') {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private void countTerms(String document) {
+            length = 0;
+            for (int s = 0; s < SECTIONS.length; s++) {
+                length += spanCounts[s];
+            }
+            int capacity = Integer.highestOneBit(Math.max(16, length * 2)) << 1;
+            if (table.length < capacity) {
+                table = new int[capacity];
+            }
+            Arrays.fill(table, 0, capacity, -1);
+            int mask = capacity - 1;
+            termCount = 0;
+            if (tokenTerms.length < length) {
+                tokenTerms = new int[Math.max(length, tokenTerms.length * 2)];
+            }
+            int position = 0;
+
+            for (int s = 0; s < SECTIONS.length; s++) {
+                for (int t = 0; t < spanCounts[s]; t++) {
+                    int start = spanStarts[s][t];
+                    int tokenLength = spanEnds[s][t] - start;
+                    int hash = 0;
+                    for (int i = 0; i < tokenLength; i++) {
+                        hash = 31 * hash + Character.toLowerCase(document.charAt(start + i));
+                    }
+
+                    int slot = hash & mask;
+                    while (table[slot] != -1 && !sameTerm(document, table[slot], hash, start, tokenLength)) {
+                        slot = (slot + 1) & mask;
+                    }
+                    int term = table[slot];
+                    if (term == -1) {
+                        term = addTerm(start, tokenLength, hash);
+                        table[slot] = term;
+                    }
+                    counts[term]++;
+                    tokenTerms[position++] = term;
+                }
+            }
+        }
+
+        private boolean sameTerm(String document, int term, int hash, int start, int tokenLength) {
+            if (termHashes[term] != hash || termLengths[term] != tokenLength) {
+                return false;
+            }
+            int termStart = termStarts[term];
+            for (int i = 0; i < tokenLength; i++) {
+                if (Character.toLowerCase(document.charAt(termStart + i)) != Character.toLowerCase(document.charAt(start + i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int addTerm(int start, int tokenLength, int hash) {
+            if (termCount == termStarts.length) {
+                int capacity = termCount * 2;
+                termStarts = Arrays.copyOf(termStarts, capacity);
+                termLengths = Arrays.copyOf(termLengths, capacity);
+                termHashes = Arrays.copyOf(termHashes, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            termStarts[termCount] = start;
+            termLengths[termCount] = tokenLength;
+            termHashes[termCount] = hash;
+            counts[termCount] = 0;
+            return termCount++;
+        }
+
+        public String[] getTerms(String document) {
+            String[] terms = new String[termCount];
+            for (int term = 0; term < termCount; term++) {
+                char[] chars = new char[termLengths[term]];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = Character.toLowerCase(document.charAt(termStarts[term] + i));
+                }
+                terms[term] = new String(chars);
+            }
+            return terms;
+        }
+
+        public int[] getPositions() {
+            int[] next = new int[termCount];
+            for (int term = 1; term < termCount; term++) {
+                next[term] = next[term - 1] + counts[term - 1];
+            }
+            int[] positions = new int[length];
+            int token = 0;
+            for (int s = 0; s < SECTIONS.length; s++) {
+                for (int t = 0; t < spanCounts[s]; t++) {
+                    positions[next[tokenTerms[token]]++] = position(s, token);
+                    token++;
+                }
+            }
+            return positions;
+        }
+
+        public int[] getTokenTerms() {
+            return Arrays.copyOf(tokenTerms, length);
+        }
+
+        public int[] getCounts() {
+            return Arrays.copyOf(counts, termCount);
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+}
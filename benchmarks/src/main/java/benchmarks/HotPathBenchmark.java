@@ -0,0 +1,174 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+// The engine's classes live in the default package, which Java code in a named package (and JMH requires one)
+// cannot name directly, so they are reached through method handles resolved when this class loads.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HotPathBenchmark {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    // static final handles are constants to the JIT, so calls through them cost the same as direct calls
+    private static final Class<?> HELPER_FUNCTIONS = find("HelperFunctions");
+    private static final Class<?> DOCUMENT = find("Document");
+    private static final Class<?> LEXICON = find("Lexicon");
+    private static final Class<?> INVERTED_INDEX = find("InvertedIndex");
+    private static final Class<?> POSTINGS_ITERATOR = find("PostingsIterator");
+    private static final Class<?> COLLECTION_STATISTICS = find("CollectionStatistics");
+    private static final Class<?> QUERY_ENGINE = find("QueryEngine");
+    private static final Class<?> ALGORITHM = find("QueryEngine$Algorithm");
+    private static final Class<?> DOCUMENT_STORE = find("DocumentStore");
+    private static final Class<?> SNIPPET_GENERATOR = find("SnippetGenerator");
+    private static final Class<?> SENTENCE_STORE = find("SentenceStore");
+
+    private static final MethodHandle TOKENIZE_TEXT = findStatic(HELPER_FUNCTIONS, "tokenizeText", String[].class, String.class);
+    private static final MethodHandle CONVERT_TOKENS_TO_IDS = findStatic(HELPER_FUNCTIONS, "convertTokensToIds", int[].class, String[].class, LEXICON);
+    private static final MethodHandle GET_POSTINGS = findVirtual(INVERTED_INDEX, "getPostings", POSTINGS_ITERATOR, int.class);
+    private static final MethodHandle POSTINGS_NEXT = findVirtual(POSTINGS_ITERATOR, "next", boolean.class);
+    private static final MethodHandle POSTINGS_TF = findVirtual(POSTINGS_ITERATOR, "getTf", int.class);
+    private static final MethodHandle SEARCH = findVirtual(QUERY_ENGINE, "search", find("Result").arrayType(), int[].class, int.class, ALGORITHM);
+    private static final MethodHandle CALCULATE_SENTENCE_SCORE = findStatic(SNIPPET_GENERATOR, "calculateSentenceScore", double.class, int[].class, int[].class, int.class, int.class);
+    private static final MethodHandle GENERATE_SNIPPET = findStatic(SNIPPET_GENERATOR, "generateSnippet", String.class, String.class, int[].class, LEXICON);
+    private static final MethodHandle GENERATE_STORED_SNIPPET = findStatic(SNIPPET_GENERATOR, "generateSnippet", String.class, SENTENCE_STORE, int.class, int[].class);
+    private static final MethodHandle GET_SENTENCE_STORE = findVirtual(DOCUMENT_STORE, "getSentenceStore", SENTENCE_STORE);
+    private static final MethodHandle GET_DOCUMENT = findVirtual(DOCUMENT_STORE, "getDocument", String.class, int.class);
+
+    @Param({"5000"})
+    public int documentCount;
+
+    @Param({"los angeles police", "city council fire school board water report year state court"})
+    public String query;
+
+    private Path workDirectory;
+    private Object lexicon;
+    private Object index;
+    private Object queryEngine;
+    private Object documentStore;
+    private Object sentenceStore;
+    private Object exhaustive;
+    private Object blockMaxWand;
+    private String documentText;
+    private String[] documentTokens;
+    private int[] documentTokenIds;
+    private int[] queryTokenIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        workDirectory = Files.createTempDirectory("trec-bench");
+        File corpus = workDirectory.resolve("corpus.gz").toFile();
+        String indexDirectory = workDirectory.resolve("index").toString();
+        new SyntheticCorpus(42).write(corpus, documentCount);
+
+        findStatic(find("IndexEngine"), "main", void.class, String[].class).invoke(new String[] {corpus.getPath(), indexDirectory});
+
+        Object documents = findStatic(HELPER_FUNCTIONS, "loadDocuments", DOCUMENT.arrayType(), String.class).invoke(indexDirectory);
+        lexicon = LOOKUP.findConstructor(LEXICON, MethodType.methodType(void.class, String.class)).invoke(indexDirectory);
+        index = LOOKUP.findConstructor(INVERTED_INDEX, MethodType.methodType(void.class, String.class)).invoke(indexDirectory);
+        Object statistics = findStatic(COLLECTION_STATISTICS, "load", COLLECTION_STATISTICS, String.class).invoke(indexDirectory);
+        queryEngine = LOOKUP.findConstructor(QUERY_ENGINE, MethodType.methodType(void.class, INVERTED_INDEX, DOCUMENT.arrayType(), COLLECTION_STATISTICS))
+            .invoke(index, documents, statistics);
+        documentStore = LOOKUP.findConstructor(DOCUMENT_STORE, MethodType.methodType(void.class, String.class)).invoke(indexDirectory);
+        sentenceStore = GET_SENTENCE_STORE.invoke(documentStore);
+        exhaustive = ALGORITHM.getField("EXHAUSTIVE").get(null);
+        blockMaxWand = ALGORITHM.getField("BMW").get(null);
+
+        documentText = (String) GET_DOCUMENT.invoke(documentStore, 1);
+        documentTokens = (String[]) TOKENIZE_TEXT.invoke(documentText);
+        documentTokenIds = (int[]) CONVERT_TOKENS_TO_IDS.invoke(documentTokens, lexicon);
+        queryTokenIds = (int[]) CONVERT_TOKENS_TO_IDS.invoke((String[]) TOKENIZE_TEXT.invoke(query), lexicon);
+    }
+
+    private static Class<?> find(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("engine class " + name + " is not on the classpath", e);
+        }
+    }
+
+    private static MethodHandle findStatic(Class<?> owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findStatic(owner, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findVirtual(Class<?> owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findVirtual(owner, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public Object tokenizeText() throws Throwable {
+        return TOKENIZE_TEXT.invoke(documentText);
+    }
+
+    @Benchmark
+    public Object convertTokensToIds() throws Throwable {
+        return CONVERT_TOKENS_TO_IDS.invoke(documentTokens, lexicon);
+    }
+
+    @Benchmark
+    public long decodePostings() throws Throwable {
+        long sum = 0;
+        for (int termId : queryTokenIds) {
+            Object postings = GET_POSTINGS.invoke(index, termId);
+            while ((boolean) POSTINGS_NEXT.invoke(postings)) {
+                sum += (int) POSTINGS_TF.invoke(postings);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public Object bm25Exhaustive() throws Throwable {
+        return SEARCH.invoke(queryEngine, queryTokenIds, 10, exhaustive);
+    }
+
+    @Benchmark
+    public Object bm25BlockMaxWand() throws Throwable {
+        return SEARCH.invoke(queryEngine, queryTokenIds, 10, blockMaxWand);
+    }
+
+    @Benchmark
+    public double calculateSentenceScore() throws Throwable {
+        return (double) CALCULATE_SENTENCE_SCORE.invoke(documentTokenIds, queryTokenIds, 0, 3);
+    }
+
+    @Benchmark
+    public Object generateSnippet() throws Throwable {
+        return GENERATE_SNIPPET.invoke(documentText, queryTokenIds, lexicon);
+    }
+
+    @Benchmark
+    public Object generateStoredSnippet() throws Throwable {
+        return GENERATE_STORED_SNIPPET.invoke(sentenceStore, 1, queryTokenIds);
+    }
+}
@@ -0,0 +1,94 @@
+package benchmarks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+// Writes a gzip TREC-format collection shaped like the LA Times one: <DOC>/<DOCNO>/<HEADLINE>/<TEXT>/<GRAPHIC>
+// sections, LAmmddyy-nnnn docnos, and Zipf-distributed words so postings lengths look realistic.
+public class SyntheticCorpus {
+    private static final String[] COMMON_WORDS = {
+        "los", "angeles", "police", "city", "council", "fire", "school", "board", "water", "report",
+        "year", "state", "court", "judge", "county", "new", "people", "game", "team", "season",
+        "market", "stock", "price", "company", "home", "family", "war", "oil", "music", "film"
+    };
+    private static final int VOCABULARY_SIZE = 20000;
+
+    private Random random;
+    private String[] vocabulary = new String[VOCABULARY_SIZE];
+    private double[] cumulativeWeights = new double[VOCABULARY_SIZE];
+
+    public SyntheticCorpus(long seed) {
+        random = new Random(seed);
+        double total = 0;
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            vocabulary[i] = i < COMMON_WORDS.length ? COMMON_WORDS[i] : "w" + i;
+            total += 1.0 / (i + 1);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: java benchmarks.SyntheticCorpus <document_count> <path_to_output.gz>");
+            System.exit(1);
+        }
+        new SyntheticCorpus(42).write(new File(args[1]), Integer.parseInt(args[0]));
+    }
+
+    public void write(File file, int documentCount) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8));
+        for (int d = 0; d < documentCount; d++) {
+            String docno = String.format("LA%02d%02d%02d-%04d", 1 + random.nextInt(12), 1 + random.nextInt(28), 89 + random.nextInt(2), d % 10000);
+            writer.write("<DOC>\n<DOCNO> " + docno + " </DOCNO>\n<DOCID> " + (d + 1) + " </DOCID>\n");
+            if (random.nextDouble() < 0.9) {
+                writer.write("<HEADLINE>\n<P>\n" + sentence(5 + random.nextInt(5)) + "\n</P>\n</HEADLINE>\n");
+            }
+            writer.write("<TEXT>\n");
+            int paragraphs = 1 + random.nextInt(12);
+            for (int p = 0; p < paragraphs; p++) {
+                StringBuilder paragraph = new StringBuilder();
+                int sentences = 1 + random.nextInt(4);
+                for (int s = 0; s < sentences; s++) {
+                    paragraph.append(s == 0 ? "" : " ").append(sentence(5 + random.nextInt(20)));
+                }
+                writer.write("<P>\n" + paragraph + "\n</P>\n");
+            }
+            writer.write("</TEXT>\n");
+            if (random.nextDouble() < 0.2) {
+                writer.write("<GRAPHIC>\n<P>\n" + sentence(7) + "\n</P>\n</GRAPHIC>\n");
+            }
+            writer.write("</DOC>\n");
+        }
+        writer.close();
+    }
+
+    private String sentence(int length) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            String word = word();
+            if (i == 0) {
+                sentence.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+            } else {
+                sentence.append(' ').append(word);
+            }
+        }
+        return sentence.append(".!?".charAt(random.nextInt(3))).toString();
+    }
+
+    private String word() {
+        double target = random.nextDouble() * cumulativeWeights[VOCABULARY_SIZE - 1];
+        int low = 0;
+        int high = VOCABULARY_SIZE - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulativeWeights[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return vocabulary[low];
+    }
+}